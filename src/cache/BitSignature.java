@@ -0,0 +1,177 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A fixed width Bloom-style bit signature of a graph signature: every label pair and every label of an encoded 
+ * signature (see SignatureIndex.encode) sets K hashed bits. If the signature of a polytree is a subset of the 
+ * signature of a query, the bits of the polytree are a subset of the bits of the query, so a polytree whose bits are 
+ * not covered is rejected with one AND-NOT per word; the survivors still need the exact containment test.
+ * @author Arash Fard
+ */
+public class BitSignature {
+	public static int WORDS = 2;		// the width of the signatures in 64-bit words
+	public static final int K = 2;		// the number of bits set by each pair or label
+
+	private static final long PAIR_SEED = 0x9E3779B97F4A7C15L;
+	private static final long LABEL_SEED = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * Builds the bit signature of an encoded signature with the default width
+	 * @param sig the sorted label pairs of a signature
+	 * @return the bit signature
+	 */
+	public static long[] of(long[] sig) {
+		return of(sig, WORDS);
+	}
+
+	/**
+	 * Builds the bit signature of an encoded signature
+	 * @param sig the sorted label pairs of a signature
+	 * @param nWords the width in 64-bit words
+	 * @return the bit signature
+	 */
+	public static long[] of(long[] sig, int nWords) {
+		long[] bits = new long[nWords];
+		int nBits = 64 * nWords;
+		for(long pair : sig) {
+			set(bits, nBits, mix(pair ^ PAIR_SEED));
+			set(bits, nBits, mix((pair >> 32) ^ LABEL_SEED));
+			set(bits, nBits, mix((int) pair ^ LABEL_SEED));
+		} //for
+		return bits;
+	}
+
+	/**
+	 * Sets the K bits of a hash; each bit takes 16 bits of the hash
+	 */
+	private static void set(long[] bits, int nBits, long hash) {
+		for(int i = 0; i < K; i++) {
+			int bit = (int) ((hash >>> (16 * i)) & 0xffff) % nBits;
+			bits[bit >>> 6] |= 1L << bit;
+		} //for
+	}
+
+	/**
+	 * The 64-bit finalizer of MurmurHash3
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Tests if the bit signature of a polytree, stored at an offset of a flat array, may be contained in the 
+	 * bit signature of a query
+	 * @param query the bit signature of the query
+	 * @param bits the bit signatures of the polytrees, each one in query.length words
+	 * @param offset the offset of the polytree in words
+	 * @return false when the polytree surely can not match; true otherwise
+	 */
+	public static boolean mayContain(long[] query, long[] bits, int offset) {
+		long diff = 0;
+		for(int i = 0; i < query.length; i++)
+			diff |= bits[offset + i] & ~query[i];
+		return diff == 0;
+	}
+
+	/**
+	 * Tests if a sorted array is a subset of another sorted array
+	 * @param sub the sorted values which should be contained
+	 * @param sup the sorted values
+	 * @return true when every value of sub is in sup
+	 */
+	public static boolean containsAll(long[] sup, long[] sub) {
+		if(sub.length > sup.length)
+			return false;
+		int j = 0;
+		for(long v : sub) {
+			while(j < sup.length && sup[j] < v)
+				j++;
+			if(j == sup.length || sup[j] != v)
+				return false;
+			j++;
+		} //for
+		return true;
+	}
+
+	/**
+	 * Measures the false positive rate of the bit signatures at several widths: the fraction of the cached signatures
+	 * which are not contained in a query signature but pass its bit test, for the whole cache and for the signatures 
+	 * with the same labels as the query (the ones left by SignatureIndex)
+	 * args[0] the number of labels (optional)
+	 */
+	public static void main(String[] args) {
+		int nLabels = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		Random rand = new Random(1);
+		List<long[]> cached = new ArrayList<long[]>();
+		for(int i = 0; i < 20000; i++)
+			cached.add(SignatureIndex.encode(SignatureIndex.randomPolytree(rand, nLabels, 2 + rand.nextInt(6))));
+		List<long[]> queries = new ArrayList<long[]>();
+		for(int i = 0; i < 500; i++)
+			queries.add(SignatureIndex.encode(SignatureIndex.randomPolytree(rand, nLabels, 6 + rand.nextInt(10))));
+
+		System.out.println("bits\t FP rate (all)\t FP rate (same labels)\t test (ns)");
+		for(int nWords : new int[] {1, 2, 4, 8}) {
+			long[] bits = new long[cached.size() * nWords];
+			for(int i = 0; i < cached.size(); i++)
+				System.arraycopy(of(cached.get(i), nWords), 0, bits, i * nWords, nWords);
+			long negatives = 0, falsePositives = 0, sameNegatives = 0, sameFalsePositives = 0;
+			long time = 0;
+			for(long[] q : queries) {
+				long[] qBits = of(q, nWords);
+				long[] qLabels = SignatureIndex.labelsOf(q);
+				boolean[] pass = new boolean[cached.size()];
+				long t0 = System.nanoTime();
+				for(int i = 0; i < cached.size(); i++)
+					pass[i] = mayContain(qBits, bits, i * nWords);
+				time += System.nanoTime() - t0;
+				for(int i = 0; i < cached.size(); i++) {
+					long[] c = cached.get(i);
+					if(containsAll(q, c)) {
+						if(! pass[i])
+							throw new IllegalStateException("false negative");
+						continue;
+					} //if
+					negatives++;
+					boolean sameLabels = Arrays.equals(qLabels, SignatureIndex.labelsOf(c));
+					if(sameLabels)
+						sameNegatives++;
+					if(pass[i]) {
+						falsePositives++;
+						if(sameLabels)
+							sameFalsePositives++;
+					} //if
+				} //for
+			} //for
+			System.out.println(64 * nWords + "\t " + (double) falsePositives / negatives + "\t " 
+					+ (sameNegatives == 0 ? "-" : "" + (double) sameFalsePositives / sameNegatives) + "\t " 
+					+ (double) time / queries.size() / cached.size());
+		} //for
+	} //main
+
+} //class
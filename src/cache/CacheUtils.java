@@ -51,6 +51,16 @@ public class CacheUtils {
 		return matchSet;
 	} //isCandidateMatch
 	
+	/**
+	 * Returns candidate set of polytrees in the cache, using the inverted index of the signatures instead of a scan
+	 * @param inGraph	the input graph
+	 * @param cacheIndex	the signature index of the cache
+	 * @return the candidate match set of the input graph
+	 */
+	public static Set<SmallGraph> getCandidateMatchSet(SmallGraph inGraph, SignatureIndex cacheIndex) {
+		return cacheIndex.getCandidateMatchSet(inGraph);
+	} //getCandidateMatchSet
+	
 	/**
 	 * Returns the set of labels in a graph signature
 	 * @param sig a graph signature
@@ -161,9 +171,23 @@ public class CacheUtils {
 			Map<Set<Pair<Integer,Integer>>, Set<SmallGraph>> cacheIndex) {
 		SmallGraph lfuPolytree = fu.pollLeast();
 		cache.remove(lfuPolytree);
-		for(Set<SmallGraph> aSet : cacheIndex.values()) {
+		Set<SmallGraph> aSet = cacheIndex.get(lfuPolytree.getSignature()); // the set of the polytree
+		if(aSet != null)
 			aSet.remove(lfuPolytree);
-		}
+		return lfuPolytree;
+	} //removeLFU
+	
+	/**
+	 * Removes the least frequently used polytree from the cache and from its signature index
+	 * @param fu the frequency usage of the polytrees
+	 * @param cache the cache
+	 * @param cacheIndex the signature index of the cache
+	 * @return the removed polytree
+	 */
+	public static SmallGraph removeLFU(FrequencyUsage fu, Map<SmallGraph, SmallGraph> cache, SignatureIndex cacheIndex) {
+		SmallGraph lfuPolytree = fu.pollLeast();
+		cache.remove(lfuPolytree);
+		cacheIndex.remove(lfuPolytree);
 		return lfuPolytree;
 	} //removeLFU
 	
@@ -0,0 +1,48 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package cache;
+
+import graph.common.SmallGraph;
+
+/**
+ * The replacement policy of a GraphQueryCache. It is told about the admitted entries and the hits, 
+ * and chooses the polytree to be evicted when the cache is full (see FrequencyUsage for LFU and 
+ * GreedyDualSizeFrequency for GDSF).
+ * @author Arash Fard
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Adds a new entry of the cache to the policy
+	 * @param entry the admitted entry
+	 */
+	void admitted(GraphQueryCache.Entry entry);
+
+	/**
+	 * Records a hit of an entry
+	 * @param entry the entry which answered a query
+	 */
+	void hit(GraphQueryCache.Entry entry);
+
+	/**
+	 * Returns the polytree of the entry to be evicted, and removes it from the policy
+	 * @return the polytree of the victim; null when the policy is empty
+	 */
+	SmallGraph pollVictim();
+
+} //interface
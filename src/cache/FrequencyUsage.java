@@ -19,17 +19,67 @@ package cache;
 
 import graph.common.SmallGraph;
 
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /*
- * A comparator to sort the map for frequency-usage or time-usage of polytrees 
+ * The frequency-usage of polytrees for LFU replacement, with O(1) operations:
+ * the polytrees with the same frequency are kept in a doubly linked list (the oldest first), 
+ * and these lists are kept in a doubly linked list sorted by their frequency (the least first)
  */
-public class FrequencyUsage {
-	Map<SmallGraph, Long> fuMap = null;
-	TreeMap<SmallGraph, Long> fuMap_sorted = null;
+public class FrequencyUsage implements EvictionPolicy {
+	Map<SmallGraph, Node> fuMap = null;		// the node of each polytree
+	FreqList least = null;					// the list of the least frequency
+
+	/**
+	 * A polytree in the list of its frequency
+	 */
+	private static class Node {
+		final SmallGraph polytree;
+		FreqList list = null;
+		Node prev = null, next = null;
+
+		Node(SmallGraph polytree) {
+			this.polytree = polytree;
+		}
+	} //Node
+
+	/**
+	 * The polytrees with one frequency
+	 */
+	private static class FreqList {
+		final long frequency;
+		FreqList prev = null, next = null;
+		Node head = null, tail = null;
+
+		FreqList(long frequency) {
+			this.frequency = frequency;
+		}
+
+		void append(Node node) {
+			node.list = this;
+			node.prev = tail;
+			node.next = null;
+			if(tail == null)
+				head = node;
+			else
+				tail.next = node;
+			tail = node;
+		}
+
+		void unlink(Node node) {
+			if(node.prev == null)
+				head = node.next;
+			else
+				node.prev.next = node.next;
+			if(node.next == null)
+				tail = node.prev;
+			else
+				node.next.prev = node.prev;
+			node.prev = node.next = null;
+			node.list = null;
+		}
+	} //FreqList
 	
 	/**
 	 * Constructor
@@ -39,56 +89,132 @@ public class FrequencyUsage {
 	public FrequencyUsage(int maxSize) throws Exception {
 		if(maxSize <= 0)
 			throw new Exception("maxSize must be a positive integer");
-		fuMap = new HashMap<SmallGraph, Long>(maxSize);
+		fuMap = new HashMap<SmallGraph, Node>(Math.min(maxSize, 1 << 16));
 	}
 	
 	/**
-	 * private comparator class for sorting the fuMap by values
-	 * @author arash
-	 *
+	 * Adds a polytree to the frequency map, or increases its frequency if it is already there
+	 * @param polytree
 	 */
-	private class ValueComparator implements Comparator<SmallGraph>{
-		Map<SmallGraph,Long> base;
-
-		public ValueComparator(Map<SmallGraph,Long> base) {
-			this.base = base;
-		}
-
-		@Override
-		public int compare(SmallGraph g1, SmallGraph g2) {
-			if (base.get(g1) <= base.get(g2)) {
-				return -1;
-			} else {
-				return 1;
-			}			
-		}
-	} //ValueComparator
+	public void addEntry(SmallGraph polytree) {
+		if(touch(polytree))
+			return;
+		Node node = new Node(polytree);
+		fuMap.put(polytree, node);
+		if(least == null || least.frequency != 1)
+			least = insertAfter(null, 1);
+		least.append(node);
+	} //addEntry
 	
 	/**
-	 * Adds a polytree to the frequency map
+	 * Increases the frequency of a polytree which is in the frequency map
 	 * @param polytree
+	 * @return false if the polytree is not in the frequency map; true otherwise
 	 */
-	public void addEntry(SmallGraph polytree) {
-		if(fuMap.get(polytree) == null) {
-			fuMap.put(polytree, 1L);
-		} else {
-			Long fr = fuMap.get(polytree);
-			fuMap.put(polytree, fr+1);
-		}
-	} //addEntry
+	public boolean touch(SmallGraph polytree) {
+		Node node = fuMap.get(polytree);
+		if(node == null)
+			return false;
+		FreqList list = node.list;
+		FreqList next = list.next;
+		if(next == null || next.frequency != list.frequency + 1)
+			next = insertAfter(list, list.frequency + 1);
+		list.unlink(node);
+		next.append(node);
+		if(list.head == null)
+			removeList(list);
+		return true;
+	} //touch
 	
 	/**
 	 * Returns the least frequently used polytree, and removes it from its fuMap
-	 * @return Returns the least frequently used polytree, and removes it
+	 * (the oldest one among the least frequently used ones)
+	 * @return Returns the least frequently used polytree, and removes it; null if the frequency map is empty
 	 */
 	public SmallGraph pollLeast() {
-		fuMap_sorted = new TreeMap<SmallGraph, Long>(new ValueComparator(fuMap));
-		fuMap_sorted.putAll(fuMap);
-		Map.Entry<SmallGraph, Long> smallest = fuMap_sorted.pollFirstEntry();
-		SmallGraph removingPolytree = smallest.getKey();
-		fuMap.remove(removingPolytree);
-		
-		return removingPolytree;
+		if(least == null)
+			return null;
+		Node node = least.head;
+		remove(node);
+		return node.polytree;
+	}
+	
+	/**
+	 * Removes a polytree from the frequency map
+	 * @param polytree
+	 * @return false if the polytree is not in the frequency map; true otherwise
+	 */
+	public boolean remove(SmallGraph polytree) {
+		Node node = fuMap.get(polytree);
+		if(node == null)
+			return false;
+		remove(node);
+		return true;
+	}
+	
+	/**
+	 * Returns the frequency of a polytree
+	 * @param polytree
+	 * @return the frequency; 0 if the polytree is not in the frequency map
+	 */
+	public long getFrequency(SmallGraph polytree) {
+		Node node = fuMap.get(polytree);
+		return (node == null) ? 0 : node.list.frequency;
+	}
+	
+	/**
+	 * Returns the number of polytrees in the frequency map
+	 */
+	public int size() {
+		return fuMap.size();
+	}
+	
+	private void remove(Node node) {
+		fuMap.remove(node.polytree);
+		FreqList list = node.list;
+		list.unlink(node);
+		if(list.head == null)
+			removeList(list);
+	}
+	
+	/**
+	 * Inserts a new frequency list after a list, or as the first list if it is null
+	 */
+	private FreqList insertAfter(FreqList list, long frequency) {
+		FreqList newList = new FreqList(frequency);
+		newList.prev = list;
+		newList.next = (list == null) ? least : list.next;
+		if(newList.next != null)
+			newList.next.prev = newList;
+		if(list == null)
+			least = newList;
+		else
+			list.next = newList;
+		return newList;
+	}
+	
+	private void removeList(FreqList list) {
+		if(list.prev == null)
+			least = list.next;
+		else
+			list.prev.next = list.next;
+		if(list.next != null)
+			list.next.prev = list.prev;
+	}
+
+	@Override
+	public void admitted(GraphQueryCache.Entry entry) {
+		addEntry(entry.polytree);
+	}
+
+	@Override
+	public void hit(GraphQueryCache.Entry entry) {
+		addEntry(entry.polytree);
+	}
+
+	@Override
+	public SmallGraph pollVictim() {
+		return pollLeast();
 	}
 	
 	/*
@@ -0,0 +1,315 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package cache;
+
+import graph.common.Ball;
+import graph.common.Graph;
+import graph.common.GraphUtils;
+import graph.common.SmallGraph;
+import graph.simulation.DualSimulation;
+import graph.simulation.TightSimulation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The cache of the query results: each entry is a polytree of a query with its dual simulation relation over the
+ * data graph and the subgraph induced by that relation. A new query hits an entry when its signature has the same
+ * labels as the polytree and contains it (see SignatureIndex) and it is a dual cover match of the polytree; then 
+ * the query can be answered from the induced subgraph instead of the data graph.
+ * The capacity is bounded both by the number of entries and by the estimated bytes of the entries, 
+ * and the victims are chosen by a pluggable EvictionPolicy.
+ * @author Arash Fard
+ */
+public class GraphQueryCache {
+	public static final int BYTES_PER_VERTEX = 160;	// an estimate of a vertex of a SmallGraph with its label and adjacency set
+	public static final int BYTES_PER_EDGE = 40;	// an estimate of an Integer in an adjacency set
+	public static final int BYTES_PER_MATCH = 40;	// an estimate of an Integer in a set of the relation
+
+	private final Map<SmallGraph, Entry> entries = new HashMap<SmallGraph, Entry>();	// by the polytree
+	private final SignatureIndex index = new SignatureIndex();
+	private final EvictionPolicy policy;
+	private final int maxEntries;
+	private final long maxBytes;
+	public boolean admitOnMiss = true;	// if answer() stores the polytree of a missed query
+
+	// statistics
+	public long bytes = 0;				// the estimated bytes of the entries
+	public long nLookups = 0;
+	public long nHits = 0;
+	public long nCandidates = 0;		// the number of the candidates tested by isDualCoverMatch
+	public int lastCandidates = 0;		// the number of the candidates of the last lookup
+	public long nAdmissions = 0;
+	public long nRejections = 0;		// the entries larger than the whole capacity
+	public long nEvictions = 0;
+	public long t_lookup = 0;			// the total time of the lookups in ns
+	public long t_admit = 0;			// the total time of the admissions (with the evictions) in ns
+
+	/**
+	 * An entry of the cache
+	 */
+	public static class Entry {
+		public final SmallGraph query;				// the query whose polytree made the entry
+		public final SmallGraph polytree;
+		public final Map<Integer, Set<Integer>> relation;	// the dual simulation relation of the polytree over the data graph
+		public final SmallGraph inducedSubgraph;	// the subgraph of the data graph induced by the relation
+		public final long bytes;					// the estimated size of the entry
+		public double cost = 0;						// the time (ms) of answering the query without the cache
+		public long nHits = 0;
+
+		Entry(SmallGraph query, SmallGraph polytree, Map<Integer, Set<Integer>> relation, SmallGraph inducedSubgraph) {
+			this(query, polytree, relation, inducedSubgraph, 
+					estimateBytes(polytree) + estimateBytes(inducedSubgraph) + estimateBytes(relation));
+		}
+
+		Entry(SmallGraph query, SmallGraph polytree, Map<Integer, Set<Integer>> relation, SmallGraph inducedSubgraph, long bytes) {
+			this.query = query;
+			this.polytree = polytree;
+			this.relation = relation;
+			this.inducedSubgraph = inducedSubgraph;
+			this.bytes = bytes;
+		}
+	} //Entry
+
+	/**
+	 * Constructor
+	 * @param maxEntries the maximum number of entries
+	 * @param maxBytes the maximum estimated bytes of the entries
+	 * @param policy the replacement policy
+	 */
+	public GraphQueryCache(int maxEntries, long maxBytes, EvictionPolicy policy) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+	}
+
+	/**
+	 * Constructor of a cache with LFU replacement and no bound on the bytes
+	 * @param maxEntries the maximum number of entries
+	 * @throws Exception
+	 */
+	public GraphQueryCache(int maxEntries) throws Exception {
+		this(maxEntries, Long.MAX_VALUE, new FrequencyUsage(maxEntries));
+	}
+
+	/**
+	 * Finds an entry which can answer a query, and records the hit
+	 * @param query the query graph
+	 * @return the first entry whose polytree is a dual cover match of the query; null if there is no one
+	 */
+	public synchronized Entry lookup(SmallGraph query) {
+		long startTime = System.nanoTime();
+		nLookups++;
+		Entry hit = null;
+		Set<SmallGraph> candidateMatchSet = index.getCandidateMatchSet(query);
+		lastCandidates = candidateMatchSet.size();
+		for(SmallGraph candidate : candidateMatchSet) {
+			nCandidates++;
+			if(CacheUtils.isDualCoverMatch(query, candidate)) {
+				hit = entries.get(candidate);
+				break; // the first match would be enough
+			} //if
+		} //for
+		if(hit != null) {
+			nHits++;
+			hit.nHits++;
+			policy.hit(hit);
+		} //if
+		t_lookup += System.nanoTime() - startTime;
+		return hit;
+	}
+
+	/**
+	 * Stores a polytree with its relation and induced subgraph, evicting entries if needed
+	 * @param query the query graph
+	 * @param polytree the polytree of the query
+	 * @param relation the dual simulation relation of the polytree over the data graph
+	 * @param inducedSubgraph the subgraph induced by the relation
+	 * @return the new entry; null if it is larger than the capacity of the cache
+	 */
+	public Entry admit(SmallGraph query, SmallGraph polytree, Map<Integer, Set<Integer>> relation, SmallGraph inducedSubgraph) {
+		return admit(query, polytree, relation, inducedSubgraph, null);
+	}
+
+	/**
+	 * Stores a polytree with its relation and induced subgraph, evicting entries if needed
+	 * @param query the query graph
+	 * @param polytree the polytree of the query
+	 * @param relation the dual simulation relation of the polytree over the data graph
+	 * @param inducedSubgraph the subgraph induced by the relation
+	 * @param evicted the evicted entries are added to it if it is not null
+	 * @return the new entry; null if it is larger than the capacity of the cache
+	 */
+	public Entry admit(SmallGraph query, SmallGraph polytree, Map<Integer, Set<Integer>> relation, 
+			SmallGraph inducedSubgraph, List<Entry> evicted) {
+		return admit(query, polytree, relation, inducedSubgraph, 0, evicted);
+	}
+
+	/**
+	 * Stores a polytree with its relation and induced subgraph, evicting entries if needed
+	 * @param query the query graph
+	 * @param polytree the polytree of the query
+	 * @param relation the dual simulation relation of the polytree over the data graph
+	 * @param inducedSubgraph the subgraph induced by the relation
+	 * @param cost the time (ms) of answering the query without the cache; 0 if it is unknown
+	 * @param evicted the evicted entries are added to it if it is not null
+	 * @return the new entry; null if it is larger than the capacity of the cache
+	 */
+	public synchronized Entry admit(SmallGraph query, SmallGraph polytree, Map<Integer, Set<Integer>> relation, 
+			SmallGraph inducedSubgraph, double cost, List<Entry> evicted) {
+		long startTime = System.nanoTime();
+		Entry entry = new Entry(query, polytree, relation, inducedSubgraph);
+		entry.cost = cost;
+		if(entry.bytes > maxBytes || maxEntries <= 0 || entries.containsKey(polytree)) {
+			nRejections++;
+			t_admit += System.nanoTime() - startTime;
+			return null;
+		} //if
+		while(entries.size() >= maxEntries || bytes + entry.bytes > maxBytes) {
+			SmallGraph victimPolytree = policy.pollVictim();
+			if(victimPolytree == null)
+				break;
+			Entry victim = entries.remove(victimPolytree);
+			index.remove(victim.polytree);
+			bytes -= victim.bytes;
+			nEvictions++;
+			if(evicted != null)
+				evicted.add(victim);
+		} //while
+		entries.put(polytree, entry);
+		index.add(polytree);
+		policy.admitted(entry);
+		bytes += entry.bytes;
+		nAdmissions++;
+		t_admit += System.nanoTime() - startTime;
+		return entry;
+	}
+
+	/**
+	 * Answers a query through the cache: from the induced subgraph of a hit entry, or from the data graph otherwise.
+	 * After a miss, the polytree of the query is admitted if admitOnMiss is set.
+	 * @param dataGraph the data graph
+	 * @param query the query graph
+	 * @return the filtered result balls of the tight simulation
+	 */
+	public Set<Ball> answer(Graph dataGraph, SmallGraph query) {
+		Entry hit = lookup(query);
+		if(hit != null) {
+			Set<Ball> results = TightSimulation.getTightSimulation(hit.inducedSubgraph, query);
+			TightSimulation.filterMatchGraphs(results);
+			return results;
+		} //if
+
+		long startTime = System.nanoTime();
+		Set<Ball> results = TightSimulation.getTightSimulation(dataGraph, query);
+		TightSimulation.filterMatchGraphs(results);
+		double t_noCache = (double)(System.nanoTime() - startTime) / 1000000;
+		if(admitOnMiss) {
+			SmallGraph polytree = GraphUtils.getPolytree(query, query.getSelectedCenter());
+			Map<Integer, Set<Integer>> dualSim = DualSimulation.getDualSimSet(dataGraph, polytree);
+			SmallGraph inducedSubgraph = GraphUtils.inducedSubgraph(dataGraph, DualSimulation.nodesInSimSet(dualSim));
+			admit(query, polytree, dualSim, inducedSubgraph, t_noCache, null);
+		} //if
+		return results;
+	}
+
+	/**
+	 * Returns the entry of a polytree
+	 * @param polytree the polytree
+	 * @return its entry; null if it is not in the cache
+	 */
+	public synchronized Entry get(SmallGraph polytree) {
+		return entries.get(polytree);
+	}
+
+	/**
+	 * Returns the number of the entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of the distinct signatures of the polytrees
+	 */
+	public synchronized int numSignatures() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the maximum number of the polytrees with the same signature
+	 */
+	public synchronized int maxPolytreesPerSignature() {
+		int maxSet = 0;
+		for(Set<SmallGraph> pt : index.values())
+			maxSet = Math.max(maxSet, pt.size());
+		return maxSet;
+	}
+
+	/**
+	 * Returns the hit rate of the lookups
+	 */
+	public synchronized double hitRate() {
+		return (nLookups == 0) ? 0 : (double) nHits / nLookups;
+	}
+
+	/**
+	 * Estimates the bytes of a graph
+	 * @param graph the graph; null is zero bytes
+	 * @return the estimated bytes
+	 */
+	public static long estimateBytes(SmallGraph graph) {
+		if(graph == null)
+			return 0;
+		long nEdges = 0;
+		for(Set<Integer> children : graph.vertices.values()) {
+			if(children != null)
+				nEdges += children.size();
+		} //for
+		if(graph.parentIndex != null)
+			nEdges *= 2;
+		return BYTES_PER_VERTEX * (long) graph.getNumVertices() + BYTES_PER_EDGE * nEdges;
+	}
+
+	/**
+	 * Estimates the bytes of a relation
+	 * @param relation the relation; null is zero bytes
+	 * @return the estimated bytes
+	 */
+	public static long estimateBytes(Map<Integer, Set<Integer>> relation) {
+		if(relation == null)
+			return 0;
+		long bytes = 0;
+		for(Set<Integer> matches : relation.values())
+			bytes += BYTES_PER_VERTEX + BYTES_PER_MATCH * (long) matches.size();
+		return bytes;
+	}
+
+	/**
+	 * Returns the statistics of the cache as a string
+	 */
+	public synchronized String toString() {
+		return "entries: " + entries.size() + ", signatures: " + index.size() + ", bytes: " + bytes 
+				+ ", lookups: " + nLookups + ", hits: " + nHits + ", candidates: " + nCandidates 
+				+ ", admissions: " + nAdmissions + ", rejections: " + nRejections + ", evictions: " + nEvictions 
+				+ ", lookup: " + t_lookup / 1000000.0 + " ms, admit: " + t_admit / 1000000.0 + " ms";
+	}
+
+} //class
@@ -0,0 +1,237 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package cache;
+
+import graph.common.SmallGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The GreedyDual-Size-Frequency replacement policy: the priority of an entry is 
+ * L + frequency * cost / bytes, where the cost is the time of answering its query without the cache, 
+ * the bytes are its estimated size and the frequency is its number of hits plus one. The entry with the least 
+ * priority is evicted, and L (the clock) becomes its priority, so the entries which are not hit any more age out.
+ * The entries are kept in a binary min-heap with their positions, so a hit and an eviction cost O(log n).
+ * @author Arash Fard
+ */
+public class GreedyDualSizeFrequency implements EvictionPolicy {
+	public static double DEFAULT_COST = 1;	// the cost (ms) of the entries whose cost is unknown
+
+	private final Map<SmallGraph, Node> nodes = new HashMap<SmallGraph, Node>();
+	private Node[] heap = new Node[16];
+	private int size = 0;
+	private double clock = 0;		// L, the priority of the last evicted entry
+	private long nUpdates = 0;		// the order of the updates, which breaks the ties (the oldest first)
+
+	/**
+	 * An entry in the heap
+	 */
+	private static class Node {
+		final GraphQueryCache.Entry entry;
+		double priority;
+		long order;
+		int pos;
+
+		Node(GraphQueryCache.Entry entry) {
+			this.entry = entry;
+		}
+	} //Node
+
+	/**
+	 * Returns the priority of an entry at the current clock
+	 * @param entry the entry
+	 * @return L + frequency * cost / bytes
+	 */
+	public double priority(GraphQueryCache.Entry entry) {
+		double cost = (entry.cost > 0) ? entry.cost : DEFAULT_COST;
+		return clock + (entry.nHits + 1) * cost / Math.max(1, entry.bytes);
+	}
+
+	@Override
+	public void admitted(GraphQueryCache.Entry entry) {
+		if(nodes.containsKey(entry.polytree)) {
+			hit(entry);
+			return;
+		} //if
+		Node node = new Node(entry);
+		node.priority = priority(entry);
+		node.order = nUpdates++;
+		nodes.put(entry.polytree, node);
+		if(size == heap.length)
+			heap = Arrays.copyOf(heap, 2 * size);
+		heap[size] = node;
+		node.pos = size++;
+		siftUp(node.pos);
+	}
+
+	@Override
+	public void hit(GraphQueryCache.Entry entry) {
+		Node node = nodes.get(entry.polytree);
+		if(node == null)
+			return;
+		node.priority = priority(entry);	// it only increases
+		node.order = nUpdates++;
+		siftDown(node.pos);
+	}
+
+	@Override
+	public SmallGraph pollVictim() {
+		if(size == 0)
+			return null;
+		Node victim = heap[0];
+		clock = victim.priority;
+		size--;
+		if(size > 0) {
+			heap[0] = heap[size];
+			heap[0].pos = 0;
+			siftDown(0);
+		} //if
+		heap[size] = null;
+		nodes.remove(victim.entry.polytree);
+		return victim.entry.polytree;
+	}
+
+	/**
+	 * Returns the clock L
+	 */
+	public double getClock() {
+		return clock;
+	}
+
+	/**
+	 * Returns the number of entries in the policy
+	 */
+	public int size() {
+		return size;
+	}
+
+	private boolean less(Node a, Node b) {
+		return a.priority < b.priority || (a.priority == b.priority && a.order < b.order);
+	}
+
+	private void siftUp(int i) {
+		Node node = heap[i];
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(! less(node, heap[parent]))
+				break;
+			heap[i] = heap[parent];
+			heap[i].pos = i;
+			i = parent;
+		} //while
+		heap[i] = node;
+		node.pos = i;
+	}
+
+	private void siftDown(int i) {
+		Node node = heap[i];
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= size)
+				break;
+			if(child + 1 < size && less(heap[child + 1], heap[child]))
+				child++;
+			if(! less(heap[child], node))
+				break;
+			heap[i] = heap[child];
+			heap[i].pos = i;
+			i = child;
+		} //while
+		heap[i] = node;
+		node.pos = i;
+	}
+
+	/**
+	 * Simulation of a cache with a fixed memory under LFU and GDSF: the entries have skewed costs and sizes, 
+	 * and they are requested with a Zipf distribution. It reports the fraction of the total cost of the requests
+	 * which is saved by the hits.
+	 * args[0] the number of requests (optional)
+	 */
+	public static void main(String[] args) throws Exception {
+		int nRequests = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+		int nItems = 5000;
+		Random rand = new Random(1);
+		long[] bytes = new long[nItems];
+		double[] cost = new double[nItems];
+		long totalBytes = 0;
+		for(int i = 0; i < nItems; i++) {
+			bytes[i] = (long) (1000 * Math.exp(3 * rand.nextGaussian()));	// from 1KB up to some 100MB
+			cost[i] = 10 * Math.exp(2 * rand.nextGaussian());				// from 0.1 ms up to some seconds
+			totalBytes += bytes[i];
+		} //for
+		double[] zipf = new double[nItems];
+		for(int i = 0; i < nItems; i++)
+			zipf[i] = 1.0 / (i + 1) + ((i == 0) ? 0 : zipf[i - 1]);
+		int[] requests = new int[nRequests];
+		for(int r = 0; r < nRequests; r++) {
+			int rank = Arrays.binarySearch(zipf, rand.nextDouble() * zipf[nItems - 1]);
+			requests[r] = Math.min(nItems - 1, (rank < 0) ? -rank - 1 : rank);
+		} //for
+		double totalCost = 0;
+		for(int item : requests)
+			totalCost += cost[item];
+
+		System.out.println("memory\t LFU saved\t GDSF saved\t GDSF time (ms)");
+		for(double fraction : new double[] {0.001, 0.01, 0.05, 0.2}) {
+			long maxBytes = (long) (fraction * totalBytes);
+			double savedLFU = simulate(new FrequencyUsage(nItems), requests, bytes, cost, maxBytes);
+			long startTime = System.nanoTime();
+			double savedGDSF = simulate(new GreedyDualSizeFrequency(), requests, bytes, cost, maxBytes);
+			long stopTime = System.nanoTime();
+			System.out.println(fraction + "\t " + savedLFU / totalCost + "\t " + savedGDSF / totalCost + "\t " 
+					+ (stopTime - startTime) / 1000000.0);
+		} //for
+	} //main
+
+	/**
+	 * Returns the saved cost of a sequence of requests for a policy and a memory; every missed item is admitted
+	 */
+	private static double simulate(EvictionPolicy policy, int[] requests, long[] bytes, double[] cost, long maxBytes) {
+		List<SmallGraph> polytrees = new ArrayList<SmallGraph>(bytes.length);
+		for(int i = 0; i < bytes.length; i++)
+			polytrees.add(new SmallGraph());
+		Map<SmallGraph, GraphQueryCache.Entry> cache = new HashMap<SmallGraph, GraphQueryCache.Entry>();
+		long usedBytes = 0;
+		double saved = 0;
+		for(int item : requests) {
+			GraphQueryCache.Entry entry = cache.get(polytrees.get(item));
+			if(entry != null) {
+				saved += entry.cost;
+				entry.nHits++;
+				policy.hit(entry);
+				continue;
+			} //if
+			if(bytes[item] > maxBytes)
+				continue;
+			while(usedBytes + bytes[item] > maxBytes)
+				usedBytes -= cache.remove(policy.pollVictim()).bytes;
+			entry = new GraphQueryCache.Entry(null, polytrees.get(item), null, null, bytes[item]);
+			entry.cost = cost[item];
+			cache.put(entry.polytree, entry);
+			usedBytes += entry.bytes;
+			policy.admitted(entry);
+		} //for
+		return saved;
+	}
+
+} //class
@@ -0,0 +1,417 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package cache;
+
+import graph.common.SmallGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.javatuples.Pair;
+
+/**
+ * The index of the polytrees in the cache by their signatures (see SmallGraph.getSignature).
+ * A signature is encoded as a sorted long[] of label pairs (the label of the source in the high half).
+ * A candidate of a query must have the same set of labels and a subset of its label pairs, so the signatures are 
+ * grouped in buckets by their exact label set, and each bucket has an inverted index from the label pairs to its 
+ * signatures: a lookup visits the postings of the pairs of the query in one bucket and takes the signatures whose 
+ * all pairs are visited. The cost of a lookup does not depend on the number of the other buckets.
+ * When the postings of the query are longer than its bucket, the bucket is scanned instead: the bit signatures
+ * (see BitSignature) of its signatures are tested first, and only the survivors get the exact containment test.
+ * @author Arash Fard
+ */
+public class SignatureIndex {
+	private final Map<Key, Bucket> buckets = new HashMap<Key, Bucket>();		// by the set of labels
+	private final Map<Key, Entry> entries = new HashMap<Key, Entry>();		// by the signature
+	private final Map<SmallGraph, Entry> entryOf = new HashMap<SmallGraph, Entry>();
+	private int epoch = 0;	// the stamp of the current lookup
+	private final int nWords;	// the width of the bit signatures
+
+	public long nBitTests = 0;		// the number of the bit signature tests
+	public long nBitPasses = 0;		// the number of the signatures passing the bit signature test
+	public long nExactPasses = 0;	// the number of them passing the exact containment test too
+
+	/**
+	 * Constructor with bit signatures of BitSignature.WORDS words
+	 */
+	public SignatureIndex() {
+		this(BitSignature.WORDS);
+	}
+
+	/**
+	 * Constructor
+	 * @param nWords the width of the bit signatures in 64-bit words
+	 */
+	public SignatureIndex(int nWords) {
+		this.nWords = nWords;
+	}
+
+	/**
+	 * Adds a polytree to the index by its signature
+	 * @param polytree the polytree; it must not change while it is in the index
+	 */
+	public synchronized void add(SmallGraph polytree) {
+		if(entryOf.containsKey(polytree))
+			return;
+		Key sig = new Key(encode(polytree));
+		Entry entry = entries.get(sig);
+		if(entry == null) {
+			Key labels = new Key(labelsOf(sig.values));
+			Bucket bucket = buckets.get(labels);
+			if(bucket == null)
+				buckets.put(labels, bucket = new Bucket());
+			entry = new Entry(sig, labels, BitSignature.of(sig.values, nWords));
+			bucket.add(entry);
+			entries.put(sig, entry);
+		} //if
+		entry.graphs.add(polytree);
+		entryOf.put(polytree, entry);
+	}
+
+	/**
+	 * Removes a polytree from the index; a signature without any polytree is removed too
+	 * @param polytree the polytree
+	 * @return false when the polytree is not in the index; true otherwise
+	 */
+	public synchronized boolean remove(SmallGraph polytree) {
+		Entry entry = entryOf.remove(polytree);
+		if(entry == null)
+			return false;
+		entry.graphs.remove(polytree);
+		if(entry.graphs.isEmpty()) {
+			entries.remove(entry.sig);
+			Bucket bucket = buckets.get(entry.labels);
+			bucket.remove(entry);
+			if(bucket.size == 0)
+				buckets.remove(entry.labels);
+		} //if
+		return true;
+	}
+
+	/**
+	 * Returns the polytrees whose signature has the same labels as the signature of a graph and is a subset of it
+	 * (the same result as the scan over all the signatures in CacheUtils.getCandidateMatchSet)
+	 * @param inGraph the input graph
+	 * @return the candidate match set of the input graph
+	 */
+	public synchronized Set<SmallGraph> getCandidateMatchSet(SmallGraph inGraph) {
+		Set<SmallGraph> matchSet = new HashSet<SmallGraph>();
+		long[] sig = encode(inGraph);
+		Bucket bucket = buckets.get(new Key(labelsOf(sig)));
+		if(bucket == null)
+			return matchSet;
+		if(sig.length == 0) { // only the empty signature has no labels
+			for(int i = 0; i < bucket.size; i++)
+				matchSet.addAll(bucket.slots[i].graphs);
+			return matchSet;
+		} //if
+		int nPostings = 0;
+		for(long pair : sig) {
+			List<Entry> posting = bucket.postings.get(pair);
+			if(posting != null)
+				nPostings += posting.size();
+		} //for
+		if(nPostings > bucket.size) {
+			scan(bucket, sig, matchSet);
+			return matchSet;
+		} //if
+		epoch++;
+		for(long pair : sig) {
+			List<Entry> posting = bucket.postings.get(pair);
+			if(posting == null)
+				continue;
+			for(Entry entry : posting) {
+				if(entry.stamp != epoch) {
+					entry.stamp = epoch;
+					entry.count = 0;
+				}
+				if(++entry.count == entry.sig.values.length) // all the pairs of the entry are in the signature
+					matchSet.addAll(entry.graphs);
+			} //for
+		} //for
+		return matchSet;
+	}
+
+	/**
+	 * Adds to the match set the polytrees of the signatures of a bucket contained in a signature, 
+	 * testing their bit signatures before the exact containment
+	 */
+	private void scan(Bucket bucket, long[] sig, Set<SmallGraph> matchSet) {
+		long[] bits = BitSignature.of(sig, nWords);
+		for(int i = 0; i < bucket.size; i++) {
+			if(! BitSignature.mayContain(bits, bucket.bits, i * nWords))
+				continue;
+			nBitPasses++;
+			Entry entry = bucket.slots[i];
+			if(BitSignature.containsAll(sig, entry.sig.values)) {
+				nExactPasses++;
+				matchSet.addAll(entry.graphs);
+			} //if
+		} //for
+		nBitTests += bucket.size;
+	}
+
+	/**
+	 * Returns the number of the signatures in the index
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of the polytrees in the index
+	 */
+	public synchronized int numGraphs() {
+		return entryOf.size();
+	}
+
+	/**
+	 * Returns the polytrees of each signature (a read only view)
+	 */
+	public synchronized Collection<Set<SmallGraph>> values() {
+		List<Set<SmallGraph>> values = new ArrayList<Set<SmallGraph>>(entries.size());
+		for(Entry entry : entries.values())
+			values.add(Collections.unmodifiableSet(entry.graphs));
+		return values;
+	}
+
+	/**
+	 * Encodes the signature of a graph as a sorted array of label pairs, without making the Pair objects
+	 * @param graph the graph
+	 * @return the distinct (label(u) << 32 | label(v)) of the edges (u, v), sorted
+	 */
+	public static long[] encode(SmallGraph graph) {
+		long[] sig = new long[16];
+		int n = 0;
+		for(Map.Entry<Integer, Set<Integer>> entry : graph.vertices.entrySet()) {
+			if(entry.getValue() == null || ! graph.labels.containsKey(entry.getKey()))
+				continue;
+			long label = (long) graph.labels.get(entry.getKey()) << 32;
+			for(int child : entry.getValue()) {
+				if(n == sig.length)
+					sig = Arrays.copyOf(sig, 2 * n);
+				sig[n++] = label | (graph.labels.get(child) & 0xffffffffL);
+			} //for
+		} //for
+		return distinct(sig, n);
+	}
+
+	/**
+	 * Encodes a signature as a sorted array of label pairs
+	 * @param sig the signature
+	 * @return the distinct (first << 32 | second) of the pairs, sorted
+	 */
+	public static long[] encode(Set<Pair<Integer, Integer>> sig) {
+		long[] values = new long[sig.size()];
+		int n = 0;
+		for(Pair<Integer, Integer> p : sig)
+			values[n++] = ((long) p.getValue0() << 32) | (p.getValue1() & 0xffffffffL);
+		return distinct(values, n);
+	}
+
+	/**
+	 * Returns the sorted distinct labels of an encoded signature
+	 */
+	static long[] labelsOf(long[] sig) {
+		long[] labels = new long[2 * sig.length];
+		for(int i = 0; i < sig.length; i++) {
+			labels[2 * i] = sig[i] >> 32;
+			labels[2 * i + 1] = (int) sig[i];
+		} //for
+		return distinct(labels, labels.length);
+	}
+
+	/**
+	 * Sorts the first n values and removes the repeated ones
+	 */
+	private static long[] distinct(long[] values, int n) {
+		Arrays.sort(values, 0, n);
+		int m = 0;
+		for(int i = 0; i < n; i++) {
+			if(m == 0 || values[i] != values[m - 1])
+				values[m++] = values[i];
+		} //for
+		return (m == values.length) ? values : Arrays.copyOf(values, m);
+	}
+
+	/**
+	 * A sorted long[] as a map key
+	 */
+	private static class Key {
+		final long[] values;
+		final int hash;
+
+		Key(long[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof Key) && Arrays.equals(values, ((Key) o).values);
+		}
+	} // Key
+
+	/**
+	 * A signature and its polytrees
+	 */
+	private static class Entry {
+		final Key sig;
+		final Key labels;
+		final Set<SmallGraph> graphs = new HashSet<SmallGraph>();
+		final long[] bits;	// the bit signature
+		int slot = -1;		// the position in its bucket
+		int stamp = 0;		// the lookup which counted this entry last
+		int count = 0;		// the number of the pairs of this entry found by that lookup
+
+		Entry(Key sig, Key labels, long[] bits) {
+			this.sig = sig;
+			this.labels = labels;
+			this.bits = bits;
+		}
+	} // Entry
+
+	/**
+	 * The signatures with the same set of labels, their bit signatures in one flat array, 
+	 * and the inverted index from their pairs to them
+	 */
+	private static class Bucket {
+		Entry[] slots = new Entry[4];
+		long[] bits = null;		// the bit signature of slots[i] is at i * nWords
+		final Map<Long, List<Entry>> postings = new HashMap<Long, List<Entry>>();
+		int size = 0;
+
+		void add(Entry entry) {
+			int nWords = entry.bits.length;
+			if(size == slots.length)
+				slots = Arrays.copyOf(slots, 2 * size);
+			if(bits == null)
+				bits = new long[slots.length * nWords];
+			else if(bits.length < slots.length * nWords)
+				bits = Arrays.copyOf(bits, slots.length * nWords);
+			System.arraycopy(entry.bits, 0, bits, size * nWords, nWords);
+			slots[size] = entry;
+			entry.slot = size;
+			for(long pair : entry.sig.values) {
+				List<Entry> posting = postings.get(pair);
+				if(posting == null)
+					postings.put(pair, posting = new ArrayList<Entry>());
+				posting.add(entry);
+			} //for
+			size++;
+		}
+
+		void remove(Entry entry) {
+			int nWords = entry.bits.length;
+			Entry last = slots[size - 1];	// moves the last entry to the free slot
+			slots[entry.slot] = last;
+			System.arraycopy(bits, (size - 1) * nWords, bits, entry.slot * nWords, nWords);
+			last.slot = entry.slot;
+			slots[size - 1] = null;
+			entry.slot = -1;
+			for(long pair : entry.sig.values) {
+				List<Entry> posting = postings.get(pair);
+				posting.remove(entry);
+				if(posting.isEmpty())
+					postings.remove(pair);
+			} //for
+			size--;
+		}
+	} // Bucket
+
+	/**
+	 * Microbenchmark of the lookup against the scan of CacheUtils.getCandidateMatchSet for growing caches
+	 * args[0] the number of labels (optional)
+	 */
+	public static void main(String[] args) {
+		int nLabels = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+		Random rand = new Random(1);
+		SignatureIndex index = new SignatureIndex();
+		Map<Set<Pair<Integer, Integer>>, Set<SmallGraph>> cacheIndex = new HashMap<Set<Pair<Integer, Integer>>, Set<SmallGraph>>();
+		List<SmallGraph> queries = new ArrayList<SmallGraph>();
+		for(int q = 0; q < 200; q++)
+			queries.add(randomPolytree(rand, nLabels, 4 + rand.nextInt(6)));
+
+		System.out.println("signatures\t scan (us/lookup)\t index (us/lookup)\t candidates");
+		int nGraphs = 0;
+		for(int target : new int[] {1000, 10000, 100000}) {
+			while(nGraphs < target) {
+				SmallGraph g = randomPolytree(rand, nLabels, 2 + rand.nextInt(6));
+				index.add(g);
+				Set<Pair<Integer, Integer>> sig = g.getSignature();
+				if(cacheIndex.get(sig) == null)
+					cacheIndex.put(sig, new HashSet<SmallGraph>());
+				cacheIndex.get(sig).add(g);
+				nGraphs++;
+			} //while
+			boolean same = true;
+			for(SmallGraph q : queries)
+				same &= CacheUtils.getCandidateMatchSet(q, cacheIndex).equals(index.getCandidateMatchSet(q));
+			long t0 = System.nanoTime();
+			int nScans = Math.max(1, 20000 / target);
+			for(int r = 0; r < nScans; r++) {
+				for(SmallGraph q : queries)
+					CacheUtils.getCandidateMatchSet(q, cacheIndex);
+			}
+			long t1 = System.nanoTime();
+			for(int r = 0; r < 100; r++) {
+				for(SmallGraph q : queries)
+					index.getCandidateMatchSet(q);
+			}
+			long t2 = System.nanoTime();
+			System.out.println(index.size() + "\t " + (t1 - t0) / 1000.0 / (nScans * queries.size()) + "\t " 
+					+ (t2 - t1) / 1000.0 / (100 * queries.size()) + "\t " + (same ? "same" : "different"));
+		} //for
+		System.out.println("bit signature tests: " + index.nBitTests + ", passes: " + index.nBitPasses 
+				+ ", exact passes: " + index.nExactPasses);
+	} //main
+
+	/**
+	 * A random polytree with the given number of vertices (a random tree with random edge directions);
+	 * it is used by the microbenchmarks of this package
+	 */
+	static SmallGraph randomPolytree(Random rand, int nLabels, int nVertices) {
+		SmallGraph g = new SmallGraph(nVertices);
+		for(int v = 0; v < nVertices; v++) {
+			g.labels.put(v, rand.nextInt(nLabels));
+			g.vertices.put(v, new HashSet<Integer>());
+		} //for
+		for(int v = 1; v < nVertices; v++) {
+			int u = rand.nextInt(v);
+			if(rand.nextBoolean())
+				g.vertices.get(u).add(v);
+			else
+				g.vertices.get(v).add(u);
+		} //for
+		return g;
+	}
+
+} //class
@@ -19,7 +19,9 @@ package graph.common;
 
 import graph.simulation.DualSimulation;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -62,15 +64,28 @@ public class Ball extends SmallGraph {
 	 * @param radius the radius of the ball
 	 */
 	public Ball(SmallGraph graph, int center, int radius){
+		this(graph, center, radius, new BallScratch());
+	} // Ball
+
+	/**************************************************************
+	 * Constructor for creating the ball with the reusable buffers of the calling worker.
+	 * The parentIndex of the graph must be built in advance when balls are created in parallel. 
+	 * @param graph  the data graph which ball will be created on that
+	 * @param center the center of the ball, which must be one of the vertices of the graph
+	 * @param radius the radius of the ball
+	 * @param scratch the BFS buffers of the calling thread
+	 */
+	public Ball(SmallGraph graph, int center, int radius, BallScratch scratch){
 		ballCenter = center;
 		ballRadius = radius;
 		graph.buildParentIndex();
 		borderNodes = new HashSet<Integer>();
 		nodesInBall = new HashSet<Integer>();			
 
-        this.len = new HashMap<Integer, Integer>();
+		scratch.clear();
+		Map<Integer, Integer> len = scratch.distance;
+		ArrayDeque<Integer> qu = scratch.queue;
 		int distance = 0;
-		this.qu.clear();
 		qu.add(center);
 		len.put(center, 0);
 		nodesInBall.add(center);
@@ -113,6 +128,38 @@ public class Ball extends SmallGraph {
 		
 	} // Ball
 	
+	/**************************************************************
+	 * Constructor for creating the ball directly on the data graph from a cached neighborhood (see NeighborhoodCache).
+	 * Only the vertices in matchNodes are kept, so the ball is already projected on the dual simulation relation.
+	 * @param dataGraph  the data graph; its parent index is not needed
+	 * @param center the center of the ball
+	 * @param radius the radius of the neighborhood
+	 * @param neighborhood the sorted ids of the vertices within radius hops of center in the data graph
+	 * @param matchNodes the bitmap of the vertices to keep; all the vertices are kept when it is null
+	 */
+	public Ball(Graph dataGraph, int center, int radius, int[] neighborhood, BitSet matchNodes){
+		ballCenter = center;
+		ballRadius = radius;
+		borderNodes = new HashSet<Integer>();
+		nodesInBall = new HashSet<Integer>();
+		for(int v : neighborhood) {
+			if(matchNodes == null || matchNodes.get(v))
+				nodesInBall.add(v);
+		} //for
+
+		vertices = new HashMap<Integer, Set<Integer>>(nodesInBall.size());
+		labels = new HashMap<Integer, Integer>(nodesInBall.size());
+		for(int v : nodesInBall) {
+			Set<Integer> children = new HashSet<Integer>();
+			for(int c : dataGraph.getChildren(v)) {
+				if(nodesInBall.contains(c))
+					children.add(c);
+			} //for
+			vertices.put(v, children);
+			labels.put(v, dataGraph.getLabel(v));
+		} //for
+	} // Ball
+
 	/**
 	 * Makes a clone of this ball
 	 */
@@ -153,29 +200,13 @@ public class Ball extends SmallGraph {
     /** Perform dual simulation on this ball.
      *  @param query  	the query graph Q(U, D, k)
      *  @param dualsim  mappings from a query vertex u_q to { graph vertices v_g }
-     *  @param strong	when it is false, we assume that ball is created based on the dual match result graph
-     *   (it is reserved for future if we want to implement strong)
+     *  @param strong	when it is false, we assume that ball is created based on the dual match result graph;
+     *   when it is true, the ball is created on the data graph and dualsim is projected on it first
      *  @return			returns false when the ball becomes empty; true otherwise
      */ 
     public boolean dualFilter (SmallGraph query, Map<Integer, Set<Integer>> dualsim, boolean strong) {
-    	if(strong) { // projecting dualsim on the ball
-    		this.nodesInBall.retainAll(DualSimulation.nodesInSimSet(dualsim));
-    		if(!nodesInBall.contains(ballCenter)) {
-    			this.clear();
-    			return false;
-    		}
-    		Iterator<Integer> it = this.vertices.keySet().iterator();
-    		while(it.hasNext()) {
-    			int v = it.next();
-    			if(! nodesInBall.contains(v)) {
-    				it.remove();
-    				vertices.remove(v);
-    			} else {
-    				if(vertices.get(v) != null)
-    					vertices.get(v).retainAll(nodesInBall);
-    			}
-    		}
-    	} //if
+    	if(strong && ! project(DualSimulation.nodesInSimBits(dualsim))) // projecting dualsim on the ball
+    		return false;
     	
     	// making a copy of dualsim and keeping only the vertices of the ball
     	Map<Integer, Set<Integer>> localDualSim = new HashMap<Integer, Set<Integer>>(dualsim.size());
@@ -208,6 +239,37 @@ public class Ball extends SmallGraph {
     	return true;
     } //dualFilter
     
+    /**
+     * Projects the global dual simulation on this ball; i.e., keeps only the vertices of the ball which match 
+     * a query vertex. When many balls are projected, the bitmap is computed once and shared by all of them.
+     * @param matchNodes the bitmap of the vertices in the dual simulation relation (see DualSimulation.nodesInSimBits)
+     * @return false when the center is removed (the ball is cleared); true otherwise
+     */
+    public boolean project(BitSet matchNodes) {
+    	if(! matchNodes.get(ballCenter)) {
+    		this.clear();
+    		return false;
+    	}
+    	Iterator<Integer> it = nodesInBall.iterator();
+    	while(it.hasNext()) {
+    		int v = it.next();
+    		if(! matchNodes.get(v)) {
+    			it.remove();
+    			vertices.remove(v);
+    			labels.remove(v);
+    			borderNodes.remove(v);
+    		}
+    	} //while
+    	for(Set<Integer> children : vertices.values()) {
+    		Iterator<Integer> ci = children.iterator();
+    		while(ci.hasNext()) {
+    			if(! matchNodes.get(ci.next()))
+    				ci.remove();
+    		}
+    	} //for
+    	return true;
+    } //project
+
     /** Perform new-dual simulation on this ball.
      *  @param query  	the query graph Q(U, D, k)
      *  @param dualsim  mappings from a query vertex u_q to { graph vertices v_g }
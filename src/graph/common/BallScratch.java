@@ -0,0 +1,516 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.common;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The reusable buffers of Ball construction. An instance belongs to one worker thread, so the buffers are 
+ * allocated once per worker instead of once per ball.
+ * On a MatchGraph it also holds the compact ball being evaluated: the list of its local vertices (in BFS order, 
+ * the center first), its edges in local CSR form with an edge mask, and the query vertices each of its vertices 
+ * matches. The visited flags are stamped with the epoch of the ball, so nothing is cleared between balls and 
+ * a rejected ball does not allocate anything.
+ * @author Arash Fard
+ */
+public class BallScratch {
+	final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();		// the BFS queue of a ball on a SmallGraph
+	final Map<Integer, Integer> distance = new HashMap<Integer, Integer>();	// the distance of the visited vertices from the center
+
+	private int epoch = 0;
+	private int[] stamp = new int[0];	// stamp[i] == epoch when local vertex i of the match graph is in the current ball
+	private int[] position = null;		// the position of local vertex i in the ball (valid when it is stamped)
+
+	private int size = 0;				// the number of vertices in the ball
+	private int[] vertex = new int[16];	// vertex[p] is the local id of the vertex at position p; it is also the BFS queue
+	private int[] dist = new int[16];	// dist[p] is the distance of position p from the center
+	private int[] outStart = new int[17];	// the edges of position p are out[outStart[p] .. outStart[p+1]-1]
+	private int[] out = new int[16];
+	private int[] inStart = new int[17];	// the parents of position p are in[inStart[p] .. inStart[p+1]-1]
+	private int[] in = new int[16];
+	private long[] edgeMask = new long[1];	// bit e is set when the edge out[e] is kept by the filter
+	private long[] mask = new long[16];		// the query vertices which each position matches (nWords words per position)
+
+	private int radius = 0;
+
+	// the shared BFS of a batch of centers (see extractBatch)
+	private long[] seen = new long[0];		// bit i of seen[v] is set when local vertex v is in the ball of the i-th center of the batch
+	private long[] reached = new long[0];	// the bits which reach v in the current level; after the BFS, the bits of the balls having v as a border vertex
+	private int[] touched = new int[16];	// the vertices with nonzero seen; i.e., the shared base of the balls of the batch
+	private int nTouched = 0;
+	private int[] front = new int[16];		// the frontier of the current level and the bits which reached each of its vertices
+	private long[] frontBits = new long[16];
+	private int[] nextFront = new int[16];
+	private int[] batchCenters = new int[BATCH];
+	private int[] ballStart = new int[BATCH + 1];	// the vertices of ball i are members[ballStart[i] ..], its center first
+	private int[] members = new int[16];
+
+	/**
+	 * the number of balls which share one BFS (the bits of a long)
+	 */
+	public static final int BATCH = 64;
+
+	/**
+	 * Prepares the buffers for the next ball on a SmallGraph
+	 */
+	void clear() {
+		queue.clear();
+		distance.clear();
+	}
+
+	/**
+	 * Builds the ball of the given center on a match graph as the current compact ball
+	 * @param mg the match graph
+	 * @param center the local id of the center in the match graph
+	 * @param radius the radius of the ball
+	 */
+	public void extract(MatchGraph mg, int center, int radius) {
+		int n = mg.getNumVertices();
+		if(stamp.length < n) {
+			stamp = new int[n];
+			position = new int[n];
+			epoch = 0;
+		} //if
+		if(++epoch == Integer.MAX_VALUE) { // the stamps wrap around very rarely
+			Arrays.fill(stamp, 0);
+			epoch = 1;
+		} //if
+		this.radius = radius;
+
+		// BFS on the underlying undirected graph; the vertex list is the queue
+		size = 0;
+		visit(center, 0);
+		for(int head = 0; head < size; head++) {
+			int d = dist[head];
+			if(d == radius)
+				continue; 	// a border vertex
+			int v = vertex[head];
+			for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++) {
+				if(stamp[mg.targets[e]] != epoch)
+					visit(mg.targets[e], d + 1);
+			} //for
+			for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++) {
+				if(stamp[mg.sources[e]] != epoch)
+					visit(mg.sources[e], d + 1);
+			} //for
+		} //for
+
+		induce(mg, 0L);
+	} //extract
+
+	/**
+	 * Builds the shared BFS of a batch of centers: all the balls are grown together, one bit of a long per ball,
+	 * so an edge which is in several balls is scanned once for all of them. The batch is the shared base, 
+	 * and each ball is the list of its vertices in it; selectBall makes one of them the current compact ball.
+	 * @param mg the match graph
+	 * @param centers the local ids of the centers (distinct)
+	 * @param from the index of the first center of the batch
+	 * @param count the number of centers in the batch, at most BATCH
+	 * @param radius the radius of the balls
+	 */
+	public void extractBatch(MatchGraph mg, int[] centers, int from, int count, int radius) {
+		int n = mg.getNumVertices();
+		if(seen.length < n) {
+			seen = new long[n];
+			reached = new long[n];
+		} else {
+			for(int k = 0; k < nTouched; k++) { // clearing the previous batch
+				seen[touched[k]] = 0;
+				reached[touched[k]] = 0;
+			} //for
+		} //if-else
+		if(position == null || position.length < n) {
+			stamp = new int[n];
+			position = new int[n];
+			epoch = 0;
+		} //if
+		this.radius = radius;
+		nTouched = 0;
+
+		int nFront = 0;
+		for(int i = 0; i < count; i++) {
+			int c = centers[from + i];
+			batchCenters[i] = c;
+			touch(c);
+			seen[c] |= 1L << i;
+			front = ensure(front, nFront + 1);
+			frontBits = ensure(frontBits, nFront + 1);
+			front[nFront] = c;
+			frontBits[nFront++] = 1L << i;
+		} //for
+		// one level of all the BFSs at a time, on the underlying undirected graph
+		for(int d = 0; d < radius; d++) {
+			int nNext = 0;
+			for(int k = 0; k < nFront; k++) {
+				int v = front[k];
+				long bits = frontBits[k];
+				for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++)
+					nNext = reach(mg.targets[e], bits, nNext);
+				for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++)
+					nNext = reach(mg.sources[e], bits, nNext);
+			} //for
+			front = ensure(front, nNext);
+			frontBits = ensure(frontBits, nNext);
+			for(int k = 0; k < nNext; k++) {
+				int u = nextFront[k];
+				front[k] = u;
+				frontBits[k] = reached[u];
+				reached[u] = 0;
+			} //for
+			nFront = nNext;
+		} //for
+		for(int k = 0; k < nFront; k++) // the last level is the border of the balls
+			reached[front[k]] = frontBits[k];
+
+		// the vertices of each ball, its center first
+		Arrays.fill(ballStart, 0, count + 1, 0);
+		for(int k = 0; k < nTouched; k++) {
+			long bits = seen[touched[k]];
+			while(bits != 0) {
+				ballStart[Long.numberOfTrailingZeros(bits) + 1]++;
+				bits &= bits - 1;
+			} //while
+		} //for
+		for(int i = 0; i < count; i++)
+			ballStart[i + 1] += ballStart[i];
+		if(members.length < ballStart[count])
+			members = new int[Math.max(ballStart[count], 2 * members.length)];
+		int[] next = Arrays.copyOf(ballStart, count);
+		for(int i = 0; i < count; i++)
+			members[next[i]++] = batchCenters[i];
+		for(int k = 0; k < nTouched; k++) {
+			int v = touched[k];
+			long bits = seen[v];
+			while(bits != 0) {
+				int i = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if(v != batchCenters[i])
+					members[next[i]++] = v;
+			} //while
+		} //for
+	} //extractBatch
+
+	/**
+	 * Makes the ball of the i-th center of the last batch the current compact ball
+	 * (the distances of the vertices inside the ball are not kept; only the border is known)
+	 * @param mg the match graph
+	 * @param i the index of the center in the batch
+	 */
+	public void selectBall(MatchGraph mg, int i) {
+		long bit = 1L << i;
+		size = 0;
+		for(int k = ballStart[i]; k < ballStart[i + 1]; k++) {
+			int v = members[k];
+			if(size == vertex.length) {
+				vertex = Arrays.copyOf(vertex, 2 * size);
+				dist = Arrays.copyOf(dist, 2 * size);
+			} //if
+			position[v] = size;
+			vertex[size] = v;
+			dist[size] = ((reached[v] & bit) != 0) ? radius : 0;
+			size++;
+		} //for
+		induce(mg, bit);
+	}
+
+	/**
+	 * Returns the number of vertices in the current compact ball
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a vertex to the next level of the shared BFS for the bits which have not reached it yet
+	 * @return the new size of the next level
+	 */
+	private int reach(int u, long bits, int nNext) {
+		long fresh = bits & ~seen[u];
+		if(fresh == 0)
+			return nNext;
+		if(seen[u] == 0)
+			touch(u);
+		if(reached[u] == 0) {
+			nextFront = ensure(nextFront, nNext + 1);
+			nextFront[nNext++] = u;
+		} //if
+		reached[u] |= fresh;
+		seen[u] |= fresh;
+		return nNext;
+	}
+
+	/**
+	 * Adds a vertex to the shared base of the batch
+	 */
+	private void touch(int v) {
+		touched = ensure(touched, nTouched + 1);
+		touched[nTouched++] = v;
+	}
+
+	/**
+	 * Returns the array, or a bigger copy of it, with at least the given capacity
+	 */
+	private static int[] ensure(int[] a, int capacity) {
+		return (capacity <= a.length) ? a : Arrays.copyOf(a, Math.max(capacity, 2 * a.length));
+	}
+
+	private static long[] ensure(long[] a, int capacity) {
+		return (capacity <= a.length) ? a : Arrays.copyOf(a, Math.max(capacity, 2 * a.length));
+	}
+
+	/**
+	 * Builds the induced edges of the current compact ball in local CSR form
+	 * @param bit the bit of the ball in the shared BFS; 0 when the ball is marked by the stamps
+	 */
+	private void induce(MatchGraph mg, long bit) {
+		if(outStart.length < size + 1) {
+			outStart = new int[vertex.length + 1];
+			inStart = new int[vertex.length + 1];
+		} //if
+		int nOut = 0, nIn = 0;
+		for(int p = 0; p < size; p++) {
+			int v = vertex[p];
+			outStart[p] = nOut;
+			for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++) {
+				int c = mg.targets[e];
+				if((bit == 0) ? stamp[c] == epoch : (seen[c] & bit) != 0) {
+					if(nOut == out.length) out = Arrays.copyOf(out, 2 * nOut);
+					out[nOut++] = position[c];
+				} //if
+			} //for
+			inStart[p] = nIn;
+			for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++) {
+				int r = mg.sources[e];
+				if((bit == 0) ? stamp[r] == epoch : (seen[r] & bit) != 0) {
+					if(nIn == in.length) in = Arrays.copyOf(in, 2 * nIn);
+					in[nIn++] = position[r];
+				} //if
+			} //for
+		} //for
+		outStart[size] = nOut;
+		inStart[size] = nIn;
+	}
+
+	/**
+	 * Adds a local vertex to the ball
+	 */
+	private void visit(int v, int d) {
+		if(size == vertex.length) {
+			vertex = Arrays.copyOf(vertex, 2 * size);
+			dist = Arrays.copyOf(dist, 2 * size);
+		} //if
+		stamp[v] = epoch;
+		position[v] = size;
+		vertex[size] = v;
+		dist[size] = d;
+		size++;
+	}
+
+	/**
+	 * Runs dual simulation on the current compact ball, starting from the match masks of the match graph.
+	 * It has the same result as Ball.dualFilter, without building the ball.
+	 * @param mg the match graph of the ball
+	 * @return false when a query vertex loses all of its matches or the center is not matched; true otherwise
+	 */
+	public boolean dualFilter(MatchGraph mg) {
+		int nWords = mg.nWords;
+		int nQuery = mg.qIds.length;
+		if(mask.length < size * nWords)
+			mask = new long[vertex.length * nWords];
+		for(int p = 0; p < size; p++)
+			System.arraycopy(mg.matchMask, vertex[p] * nWords, mask, p * nWords, nWords);
+
+		boolean alter = true;
+		while(alter) {
+			alter = false;
+			for(int p = 0; p < size; p++) {
+				for(int q = 0; q < nQuery; q++) {
+					if((mask[p * nWords + (q >>> 6)] & (1L << q)) != 0 && ! isValid(mg, p, q)) {
+						mask[p * nWords + (q >>> 6)] &= ~(1L << q);
+						alter = true;
+					} //if
+				} //for
+			} //for
+		} //while
+
+		// every query vertex needs a match, and the center must stay in the ball
+		for(int q = 0; q < nQuery; q++) {
+			boolean matched = false;
+			for(int p = 0; p < size && ! matched; p++)
+				matched = (mask[p * nWords + (q >>> 6)] & (1L << q)) != 0;
+			if(! matched)
+				return false;
+		} //for
+		if(! isMatched(mg, 0))
+			return false;
+
+		// the edges of the result match graph of the ball
+		int nOut = outStart[size];
+		if(edgeMask.length * 64 < nOut)
+			edgeMask = new long[(out.length + 63) >>> 6];
+		Arrays.fill(edgeMask, 0, (nOut + 63) >>> 6, 0L);
+		for(int p = 0; p < size; p++) {
+			for(int e = outStart[p]; e < outStart[p + 1]; e++) {
+				if(allowsChild(mg, p, out[e]))
+					edgeMask[e >>> 6] |= 1L << e;
+			} //for
+		} //for
+		return true;
+	} //dualFilter
+
+	/**
+	 * Checks the dual simulation condition of the position p for the dense query vertex q
+	 */
+	private boolean isValid(MatchGraph mg, int p, int q) {
+		int nWords = mg.nWords;
+		for(int qc : mg.qChildren[q]) {
+			boolean found = false;
+			for(int e = outStart[p]; e < outStart[p + 1] && ! found; e++)
+				found = (mask[out[e] * nWords + (qc >>> 6)] & (1L << qc)) != 0;
+			if(! found)
+				return false;
+		} //for
+		for(int qp : mg.qParents[q]) {
+			boolean found = false;
+			for(int e = inStart[p]; e < inStart[p + 1] && ! found; e++)
+				found = (mask[in[e] * nWords + (qp >>> 6)] & (1L << qp)) != 0;
+			if(! found)
+				return false;
+		} //for
+		return true;
+	}
+
+	/**
+	 * Checks if a query vertex matched by position p has a child matched by position c
+	 */
+	private boolean allowsChild(MatchGraph mg, int p, int c) {
+		int nWords = mg.nWords;
+		for(int w = 0; w < nWords; w++) {
+			long m = mask[p * nWords + w];
+			while(m != 0) {
+				int q = (w << 6) + Long.numberOfTrailingZeros(m);
+				m &= m - 1;
+				for(int qc : mg.qChildren[q]) {
+					if((mask[c * nWords + (qc >>> 6)] & (1L << qc)) != 0)
+						return true;
+				} //for
+			} //while
+		} //for
+		return false;
+	}
+
+	/**
+	 * Checks if position p matches a query vertex which has a child
+	 */
+	private boolean hasQueryChild(MatchGraph mg, int p) {
+		int nWords = mg.nWords;
+		for(int w = 0; w < nWords; w++) {
+			long m = mask[p * nWords + w];
+			while(m != 0) {
+				int q = (w << 6) + Long.numberOfTrailingZeros(m);
+				m &= m - 1;
+				if(mg.qChildren[q].length != 0)
+					return true;
+			} //while
+		} //for
+		return false;
+	}
+
+	/**
+	 * Builds a Ball of data graph ids from the current compact ball
+	 * @param mg the match graph of the ball
+	 * @param filtered true for the result of dualFilter; false for the whole ball (the induced subgraph)
+	 * @return the ball
+	 */
+	public Ball toBall(MatchGraph mg, boolean filtered) {
+		Ball ball = new Ball(size);
+		ball.ballCenter = mg.ids[vertex[0]];
+		ball.ballRadius = radius;
+		for(int p = 0; p < size; p++) {
+			if(filtered && ! isMatched(mg, p))
+				continue;
+			int id = mg.ids[vertex[p]];
+			ball.nodesInBall.add(id);
+			ball.labels.put(id, mg.labels[vertex[p]]);
+			if(! filtered) {
+				if(dist[p] == radius)
+					ball.borderNodes.add(id);
+			} else if(! hasQueryChild(mg, p)) {
+				continue;
+			} //if-else
+			Set<Integer> children = new HashSet<Integer>();
+			for(int e = outStart[p]; e < outStart[p + 1]; e++) {
+				if(! filtered || (edgeMask[e >>> 6] & (1L << e)) != 0)
+					children.add(mg.ids[vertex[out[e]]]);
+			} //for
+			ball.vertices.put(id, children);
+		} //for
+		return ball;
+	} //toBall
+
+	/**
+	 * Builds a view of the current compact ball after dualFilter, which is equal to toBall(mg, true) 
+	 * but keeps only the sorted local ids of its vertices and a bitmap of its edges
+	 * @param mg the match graph of the ball
+	 * @return the view
+	 */
+	public BallView toView(MatchGraph mg) {
+		long[] order = new long[size];	// the local id and the position of each matched position
+		int n = 0;
+		for(int p = 0; p < size; p++) {
+			if(isMatched(mg, p))
+				order[n++] = ((long) vertex[p] << 32) | p;
+		} //for
+		Arrays.sort(order, 0, n);
+		int[] members = new int[n];
+		for(int i = 0; i < n; i++)
+			members[i] = (int) (order[i] >>> 32);
+
+		// the kept edges between matched positions, in the order of the members and of the match graph edges
+		long[] keep = new long[(outStart[size] + 63) >>> 6];
+		int k = 0;
+		for(int i = 0; i < n; i++) {
+			int p = (int) order[i];
+			for(int e = outStart[p]; e < outStart[p + 1]; e++) {
+				if(! isMatched(mg, out[e]))
+					continue;
+				if((edgeMask[e >>> 6] & (1L << e)) != 0)
+					keep[k >>> 6] |= 1L << k;
+				k++;
+			} //for
+		} //for
+		return new BallView(mg, vertex[0], radius, members, Arrays.copyOf(keep, (k + 63) >>> 6));
+	} //toView
+
+	/**
+	 * Checks if position p matches any query vertex
+	 */
+	private boolean isMatched(MatchGraph mg, int p) {
+		for(int w = 0; w < mg.nWords; w++) {
+			if(mask[p * mg.nWords + w] != 0)
+				return true;
+		}
+		return false;
+	}
+
+} //class
@@ -0,0 +1,505 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.common;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.javatuples.Pair;
+
+/*************************************************************
+ * A ball which is a view over the compact match graph instead of a copy of its part. It keeps the sorted 
+ * local ids of its vertices and a bitmap of its edges among the induced edges of those vertices, 
+ * so a result costs a few bytes per vertex and a bit per edge instead of the maps of a SmallGraph.
+ * The vertices and labels maps are not built (they are null) while it is a view; post, pre, getLabel and 
+ * nodesInBall read the match graph through the bitmaps, and materialize() returns a standalone Ball when 
+ * a copy is needed. The other methods of SmallGraph work on the materialized copy, and the methods which 
+ * change the ball (clear, the filters and project) first turn the view into an ordinary ball (see detach).
+ * @author Arash Fard
+ */
+public class BallView extends Ball {
+	private final MatchGraph graph;
+	private final int[] members;			// the sorted local ids of the vertices of the ball
+	private final long[] edgeMask;			// bit k is set when the k-th induced edge of the members is in the ball
+	private volatile int[] edgeStart = null;	// the index of the first induced edge of each member (computed lazily)
+	private volatile int[][] parents = null;	// the start of the parents of each member and the parents (computed lazily)
+	private Ball copy = null;				// the materialized ball, once it is asked
+	private volatile boolean detached = false;	// true when the ball has its own maps and is not a view anymore
+
+	/**
+	 * Constructor
+	 * @param graph the match graph of the ball
+	 * @param center the local id of the center
+	 * @param radius the radius of the ball
+	 * @param members the sorted local ids of the vertices
+	 * @param edgeMask the kept induced edges, in the order of the members and of their children in the match graph
+	 */
+	BallView(MatchGraph graph, int center, int radius, int[] members, long[] edgeMask) {
+		this.graph = graph;
+		this.members = members;
+		this.edgeMask = edgeMask;
+		this.ballCenter = graph.ids[center];
+		this.ballRadius = radius;
+		this.nodesInBall = new MemberSet();
+		this.borderNodes = new HashSet<Integer>();
+		this.vertices = null;
+		this.labels = null;
+	}
+
+	/**
+	 * Returns the position of a data graph vertex in members; a negative number if it is not in the ball
+	 */
+	private int indexOf(int id) {
+		int local = graph.localId(id);
+		return (local < 0) ? -1 : Arrays.binarySearch(members, local);
+	}
+
+	/**
+	 * Numbers the induced edges of the members
+	 */
+	private int[] edgeStart() {
+		int[] start = edgeStart;
+		if(start == null) {
+			start = new int[members.length + 1];
+			for(int i = 0; i < members.length; i++) {
+				int v = members[i];
+				start[i + 1] = start[i];
+				for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+					if(Arrays.binarySearch(members, graph.targets[e]) >= 0)
+						start[i + 1]++;
+				} //for
+			} //for
+			edgeStart = start;
+		} //if
+		return start;
+	}
+
+	/**
+	 * Checks if the k-th induced edge is in the ball
+	 */
+	private boolean kept(int k) {
+		return (edgeMask[k >>> 6] & (1L << k)) != 0;
+	}
+
+	/**
+	 * Counts the kept induced edges in [from, to)
+	 */
+	private int countKept(int from, int to) {
+		int count = 0;
+		for(int w = from >>> 6; w <= (to - 1) >>> 6 && from < to; w++) {
+			long word = edgeMask[w];
+			if(w == from >>> 6)
+				word &= -1L << from;
+			if(w == (to - 1) >>> 6)
+				word &= -1L >>> (63 - ((to - 1) & 63));
+			count += Long.bitCount(word);
+		} //for
+		return count;
+	}
+
+	/**
+	 * Groups the parents of the members in the ball, with one pass over the kept edges; 
+	 * the parents of members[j] are parents[1][parents[0][j]] to parents[1][parents[0][j + 1] - 1]
+	 */
+	private int[][] parents() {
+		int[][] index = parents;
+		if(index == null) {
+			int[] start = new int[members.length + 1];
+			int[] list = new int[countKept(0, edgeStart()[members.length])];
+			for(int pass = 0; pass < 2; pass++) {
+				int[] next = (pass == 0) ? start : Arrays.copyOf(start, members.length);
+				int k = 0;
+				for(int i = 0; i < members.length; i++) {
+					int v = members[i];
+					for(int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+						int j = Arrays.binarySearch(members, graph.targets[e]);
+						if(j < 0)
+							continue;
+						if(kept(k)) {
+							if(pass == 0)
+								start[j + 1]++;
+							else
+								list[next[j]++] = graph.ids[v];
+						} //if
+						k++;
+					} //for
+				} //for
+				if(pass == 0) {
+					for(int j = 0; j < members.length; j++)
+						start[j + 1] += start[j];
+				} //if
+			} //for
+			index = new int[][] {start, list};
+			parents = index;
+		} //if
+		return index;
+	}
+
+	/**
+	 * Returns the children of a vertex in the ball (a read-only view over the match graph)
+	 */
+	@Override
+	public Set<Integer> post(int id) {
+		if(detached)
+			return super.post(id);
+		int i = indexOf(id);
+		if(i < 0)
+			return Collections.emptySet();
+		return new Children(i);
+	}
+
+	/**
+	 * Returns the parents of a vertex in the ball (a read-only view over the parents of the ball)
+	 */
+	@Override
+	public Set<Integer> pre(int id) {
+		if(detached)
+			return super.pre(id);
+		int j = indexOf(id);
+		if(j < 0)
+			return Collections.emptySet();
+		int[][] index = parents();
+		return new IdSlice(index[1], index[0][j], index[0][j + 1]);
+	}
+
+	@Override
+	public int getLabel(int id) {
+		if(detached)
+			return super.getLabel(id);
+		return graph.labels[graph.localId(id)];
+	}
+
+	@Override
+	public int getNumVertices() {
+		if(detached)
+			return super.getNumVertices();
+		return members.length;
+	}
+
+	@Override
+	public void buildParentIndex() {
+		if(detached)
+			super.buildParentIndex();
+		// otherwise, pre() reads the parents of the view
+	}
+
+	/**
+	 * Builds a standalone ball with the vertices and the edges of the view
+	 */
+	private Ball build() {
+		Ball ball = new Ball(members.length);
+		ball.ballCenter = ballCenter;
+		ball.ballRadius = ballRadius;
+		for(int i = 0; i < members.length; i++) {
+			int id = graph.ids[members[i]];
+			ball.nodesInBall.add(id);
+			ball.labels.put(id, graph.labels[members[i]]);
+			Set<Integer> children = new Children(i);
+			if(! children.isEmpty())
+				ball.vertices.put(id, new HashSet<Integer>(children));
+		} //for
+		return ball;
+	}
+
+	/**
+	 * Returns a standalone copy of the ball, with its own vertices and labels maps
+	 * @return the copy; the same one for all the calls, and the ball itself once it is detached
+	 */
+	public synchronized Ball materialize() {
+		if(detached)
+			return this;
+		if(copy == null)
+			copy = build();
+		return copy;
+	}
+
+	/**
+	 * Turns the view into an ordinary ball, with its own maps, before it is changed; 
+	 * the copy which materialize() returned before is not changed with it
+	 */
+	private synchronized void detach() {
+		if(detached)
+			return;
+		Ball ball = build();
+		this.vertices = ball.vertices;
+		this.labels = ball.labels;
+		this.nodesInBall = ball.nodesInBall;
+		this.borderNodes.addAll(ball.borderNodes);
+		this.parents = null;
+		this.copy = null;
+		detached = true;
+	}
+
+	/**
+	 * Makes a standalone clone of this ball
+	 */
+	@Override
+	public Ball clone() {
+		if(detached)
+			return super.clone();
+		return materialize().clone();
+	}
+
+	@Override
+	public void clear() {
+		detach();
+		super.clear();
+	}
+
+	@Override
+	public boolean dualFilter(SmallGraph query, Map<Integer, Set<Integer>> dualsim, boolean strong) {
+		detach();
+		return super.dualFilter(query, dualsim, strong);
+	}
+
+	@Override
+	public boolean newDualFilter(SmallGraph query, Map<Integer, Set<Integer>> dualsim) {
+		detach();
+		return super.newDualFilter(query, dualsim);
+	}
+
+	@Override
+	public boolean project(java.util.BitSet matchNodes) {
+		detach();
+		return super.project(matchNodes);
+	}
+
+	@Override
+	public Set<Pair<Integer, Integer>> getSignature() {
+		if(detached)
+			return super.getSignature();
+		return materialize().getSignature();
+	}
+
+	@Override
+	public int getDiameter() {
+		if(detached)
+			return super.getDiameter();
+		return materialize().getDiameter();
+	}
+
+	@Override
+	public int getRadius() {
+		if(detached)
+			return super.getRadius();
+		return materialize().getRadius();
+	}
+
+	@Override
+	public Set<Integer> getCenters() {
+		if(detached)
+			return super.getCenters();
+		return materialize().getCenters();
+	}
+
+	@Override
+	public int getSelectedCenter() {
+		if(detached)
+			return super.getSelectedCenter();
+		return materialize().getSelectedCenter();
+	}
+
+	@Override
+	public int eccentricity(int id) throws Exception {
+		if(detached)
+			return super.eccentricity(id);
+		return materialize().eccentricity(id);
+	}
+
+	@Override
+	public void buildLabelIndex() {
+		if(detached)
+			super.buildLabelIndex();
+		else
+			materialize().buildLabelIndex();
+	}
+
+	@Override
+	public Set<Integer> getVerticesLabeled(int label) {
+		if(detached)
+			return super.getVerticesLabeled(label);
+		return materialize().getVerticesLabeled(label);
+	}
+
+	@Override
+	public int isPolytree() {
+		if(detached)
+			return super.isPolytree();
+		return materialize().isPolytree();
+	}
+
+	@Override
+	public void display() {
+		if(detached)
+			super.display();
+		else
+			materialize().display();
+	}
+
+	@Override
+	public void print2File(String fileName) throws Exception {
+		if(detached)
+			super.print2File(fileName);
+		else
+			materialize().print2File(fileName);
+	}
+
+	@Override
+	public String getBallAsString() {
+		if(detached)
+			return super.getBallAsString();
+		return materialize().getBallAsString();
+	}
+
+	@Override
+	public String toString() {
+		if(detached)
+			return super.toString();
+		return materialize().toString();
+	}
+
+	/**
+	 * The children of a member in the ball: the kept induced edges in its row of the match graph
+	 */
+	private class Children extends AbstractSet<Integer> {
+		private final int i;		// the position of the vertex in members
+
+		Children(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public int size() {
+			int[] start = edgeStart();
+			return countKept(start[i], start[i + 1]);
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			final int v = members[i];
+			final int k0 = edgeStart()[i];
+			return new Iterator<Integer>() {
+				private int e = graph.offsets[v] - 1;		// the current edge in the row
+				private int k = k0 - 1;						// the number of the current edge among the induced edges
+				private int next = advance();
+
+				private int advance() {
+					for(e++; e < graph.offsets[v + 1]; e++) {
+						if(Arrays.binarySearch(members, graph.targets[e]) >= 0 && kept(++k))
+							return graph.ids[graph.targets[e]];
+					} //for
+					return -1;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return e < graph.offsets[v + 1];
+				}
+
+				@Override
+				public Integer next() {
+					if(! hasNext())
+						throw new NoSuchElementException();
+					int child = next;
+					next = advance();
+					return child;
+				}
+			};
+		}
+	} // Children
+
+	/**
+	 * A read-only set over a part of an array of distinct ids
+	 */
+	private static class IdSlice extends AbstractSet<Integer> {
+		private final int[] ids;
+		private final int from;
+		private final int to;
+
+		IdSlice(int[] ids, int from, int to) {
+			this.ids = ids;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				private int i = from;
+
+				@Override
+				public boolean hasNext() {
+					return i < to;
+				}
+
+				@Override
+				public Integer next() {
+					if(i == to)
+						throw new NoSuchElementException();
+					return ids[i++];
+				}
+			};
+		}
+	} // IdSlice
+
+	/**
+	 * The data graph ids of the members, without copying them
+	 */
+	private class MemberSet extends AbstractSet<Integer> {
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && indexOf((Integer) o) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return members.length;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < members.length;
+				}
+
+				@Override
+				public Integer next() {
+					if(i == members.length)
+						throw new NoSuchElementException();
+					return graph.ids[members[i++]];
+				}
+			};
+		}
+	} // MemberSet
+
+} //class
@@ -21,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -43,6 +44,10 @@ public class Graph {
 	private int[][] parent = null; // it remains null by default
 	private Set<Integer>[] parentIndex = null; // it remains null by default
 
+	private Map<Integer, Long> labelOutDegree = null; // the total out-degree of the vertices of each label
+
+	private static final int[] EMPTY = new int[0]; // returned for vertices without any child
+
 
 	/*************************************************************
 	 * Auxiliary constructor
@@ -239,6 +244,59 @@ public class Graph {
 		return this.labelIndex.get(label);
 	}
 
+	/*************************************************************
+	 * Gets the number of vertices which have the given label
+	 * @param label the label
+	 * @return the number of vertices with this label, 0 if there is none
+	 */
+	public int getLabelFrequency(int label) {
+		if (labelIndex == null)
+			buildLabelIndex();
+
+		Set<Integer> vSet = this.labelIndex.get(label);
+		return (vSet == null) ? 0 : vSet.size();
+	}
+
+	/*************************************************************
+	 * Gets the average out-degree of the vertices which have the given label
+	 * @param label the label
+	 * @return the average number of children of a vertex with this label, 0 if there is none
+	 */
+	public double getAverageOutDegree(int label) {
+		if (labelOutDegree == null) {
+			labelOutDegree = new HashMap<Integer, Long>();
+			for (int id = 0; id < adj.length; id++) {
+				long degree = (adj[id] == null) ? 0 : adj[id].length;
+				Long sum = labelOutDegree.get(this.label[id]);
+				labelOutDegree.put(this.label[id], (sum == null) ? degree : sum + degree);
+			}
+		}
+		int frequency = getLabelFrequency(label);
+		if (frequency == 0)
+			return 0;
+		return (double) labelOutDegree.get(label) / frequency;
+	}
+
+	/*************************************************************
+	 * Gets the children of the given vertex without copying them into a new set
+	 * @param id Id of the vertex
+	 * @return the internal array of children (an empty array when it has no child); it must not be modified
+	 */
+	public int[] getChildren(int id) {
+		if (adj[id] == null)
+			return EMPTY;
+		return adj[id];
+	}
+
+	/*************************************************************
+	 * Gets the number of outgoing edges of the given vertex id
+	 * @param id Id of the vertex
+	 * @return the out-degree of the vertex
+	 */
+	public int getOutDegree(int id) {
+		return (adj[id] == null) ? 0 : adj[id].length;
+	}
+
 	/*************************************************************
 	 * Sets the outgoing edges of the given vertex id. Label stays the same
 	 * @param id Id of the vertex
@@ -301,6 +359,127 @@ public class Graph {
 		return par;
 	}//pre
 
+	/*************************************************************
+	 * Adds the edge (from, to) to the graph and keeps the built indexes up to date
+	 * @param from the id of the source vertex
+	 * @param to the id of the target vertex
+	 * @return true if the edge is added; false if it already exists
+	 * @throws IllegalArgumentException if one of the vertices is removed
+	 */
+	public boolean addEdge(int from, int to) {
+		checkNotRemoved(from, to);
+		int[] children = getChildren(from);
+		for (int child : children) {
+			if (child == to)
+				return false;
+		}
+		adj[from] = append(children, to);
+		if (parentIndex != null)
+			parentIndex[to].add(from);
+		if (parent != null)
+			parent[to] = append((parent[to] == null) ? EMPTY : parent[to], from);
+		if (labelOutDegree != null)
+			labelOutDegree.put(label[from], labelOutDegree.get(label[from]) + 1);
+		return true;
+	}
+
+	/*************************************************************
+	 * Removes the edge (from, to) from the graph and keeps the built indexes up to date
+	 * @param from the id of the source vertex
+	 * @param to the id of the target vertex
+	 * @return true if the edge is removed; false if it does not exist
+	 * @throws IllegalArgumentException if one of the vertices is removed
+	 */
+	public boolean removeEdge(int from, int to) {
+		checkNotRemoved(from, to);
+		int[] children = getChildren(from);
+		int[] rest = remove(children, to);
+		if (rest == children)
+			return false;
+		adj[from] = rest;
+		if (parentIndex != null)
+			parentIndex[to].remove(from);
+		if (parent != null && parent[to] != null)
+			parent[to] = remove(parent[to], from);
+		if (labelOutDegree != null)
+			labelOutDegree.put(label[from], labelOutDegree.get(label[from]) - 1);
+		return true;
+	}
+
+	/*************************************************************
+	 * Adds a new vertex without any edge to the graph. The arrays are copied, 
+	 * so adding many vertices at once should be done by building a new graph.
+	 * @param lab Label of the new vertex
+	 * @return the id of the new vertex, which is the previous number of vertices
+	 */
+	public int addVertex(int lab) {
+		int id = adj.length;
+		adj = Arrays.copyOf(adj, id + 1);
+		label = Arrays.copyOf(label, id + 1);
+		label[id] = lab;
+		if (parentIndex != null) {
+			parentIndex = Arrays.copyOf(parentIndex, id + 1);
+			parentIndex[id] = new HashSet<Integer>();
+		}
+		if (parent != null)
+			parent = Arrays.copyOf(parent, id + 1);
+		if (labelIndex != null) {
+			if (labelIndex.get(lab) == null)
+				labelIndex.put(lab, new HashSet<Integer>());
+			labelIndex.get(lab).add(id);
+		}
+		if (labelOutDegree != null && labelOutDegree.get(lab) == null)
+			labelOutDegree.put(lab, 0L);
+		return id;
+	}
+
+	/*************************************************************
+	 * Removes a vertex and all of its edges from the graph. The ids of the other vertices do not change; 
+	 * the removed vertex remains as an isolated vertex with label -1.
+	 * @param id Id of the vertex
+	 */
+	public void removeVertex(int id) {
+		for (int child : getChildren(id).clone())
+			removeEdge(id, child);
+		for (int par : pre(id).toArray(new Integer[0]))
+			removeEdge(par, id);
+		if (labelIndex != null && labelIndex.get(label[id]) != null)
+			labelIndex.get(label[id]).remove(id);
+		label[id] = -1;
+	}
+
+	/**
+	 * Rejects the edges of the removed vertices (their label -1 is not in the indexes)
+	 */
+	private void checkNotRemoved(int from, int to) {
+		if (label[from] == -1 || label[to] == -1)
+			throw new IllegalArgumentException("The edge (" + from + ", " + to + ") has a removed vertex");
+	}
+
+	/**
+	 * Returns a copy of the array with the given value appended to it
+	 */
+	private static int[] append(int[] array, int value) {
+		int[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the array without the given value; the same array if the value is not in it
+	 */
+	private static int[] remove(int[] array, int value) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) {
+				int[] result = new int[array.length - 1];
+				System.arraycopy(array, 0, result, 0, i);
+				System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+				return result;
+			}
+		}
+		return array;
+	}
+
 	public void stats() {
 		this.buildLabelIndex();
 		System.out.println("Number of vertices: " + label.length);
@@ -0,0 +1,276 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The result match graph of dual simulation in compact (CSR) form. The vertices of the relation get local ids 
+ * 0..n-1 in the order of their data graph ids; the children of local vertex i are targets[offsets[i] .. offsets[i+1]-1]
+ * and its parents are sources[rOffsets[i] .. rOffsets[i+1]-1].
+ * Every data vertex is scanned once: it keeps a mask of the query vertices it matches, and its edge to a child 
+ * is kept when one of those query vertices has a query child which the child matches.
+ * @author Arash Fard
+ */
+public class MatchGraph {
+	public int[] ids = null;		// ids[i] is the data graph id of local vertex i (sorted)
+	public int[] labels = null;		// labels[i] is the label of local vertex i
+	public int[] offsets = null;	// the start of the children of each local vertex in targets (n+1 entries)
+	public int[] targets = null;	// the local ids of the children
+	public int[] rOffsets = null;	// the start of the parents of each local vertex in sources (n+1 entries)
+	public int[] sources = null;	// the local ids of the parents
+	private boolean[] hasQueryChild = null;	// true when local vertex i matches a query vertex which has a child
+
+	public int nWords = 0;			// the number of long words of a mask of query vertices
+	public long[] matchMask = null;	// the dense query vertices which local vertex i matches (words i*nWords ..)
+	public int[] qIds = null;		// qIds[q] is the id of the dense query vertex q
+	public int[][] qChildren = null;	// the dense ids of the children of each query vertex
+	public int[][] qParents = null;	// the dense ids of the parents of each query vertex
+	public long[] qChildMask = null;	// the children of each query vertex as a mask (words q*nWords ..)
+
+	/**
+	 * the number of vertices scanned by one parallel task
+	 */
+	public static int GRAIN = 4096;
+
+	/**
+	 * Builds the match graph of a dual simulation relation
+	 * @param dataGraph The Data Graph
+	 * @param query The Query Graph
+	 * @param dualSimSet the dual simulation relation of the query on the data graph
+	 * @return the compact match graph; an empty one when the relation is empty
+	 */
+	public static MatchGraph build(final Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet) {
+		final MatchGraph mg = new MatchGraph();
+		Set<Integer> nodes = new HashSet<Integer>();
+		for(int u : query.labels.keySet()) {
+			if(dualSimSet.get(u) != null)
+				nodes.addAll(dualSimSet.get(u));
+		} //for
+		final int n = nodes.size();
+		mg.ids = new int[n];
+		int k = 0;
+		for(int v : nodes)
+			mg.ids[k++] = v;
+		Arrays.sort(mg.ids);
+		mg.labels = new int[n];
+		mg.hasQueryChild = new boolean[n];
+
+		// dense ids of the query vertices and the masks of their children
+		List<Integer> qVertices = new ArrayList<Integer>(query.labels.keySet());
+		Map<Integer, Integer> qIndex = new HashMap<Integer, Integer>(qVertices.size());
+		for(int i = 0; i < qVertices.size(); i++)
+			qIndex.put(qVertices.get(i), i);
+		final int nQuery = qVertices.size();
+		final int nWords = (nQuery + 63) >>> 6;
+		mg.nWords = nWords;
+		mg.qIds = new int[nQuery];
+		mg.qChildren = new int[nQuery][];
+		mg.qParents = new int[nQuery][];
+		mg.qChildMask = new long[nQuery * nWords];
+		for(int q = 0; q < nQuery; q++) {
+			int u = qVertices.get(q);
+			mg.qIds[q] = u;
+			mg.qChildren[q] = new int[query.post(u).size()];
+			k = 0;
+			for(int u_c : query.post(u)) {
+				int c = qIndex.get(u_c);
+				mg.qChildren[q][k++] = c;
+				mg.qChildMask[q * nWords + (c >>> 6)] |= 1L << c;
+			} //for
+			mg.qParents[q] = new int[query.pre(u).size()];
+			k = 0;
+			for(int u_p : query.pre(u))
+				mg.qParents[q][k++] = qIndex.get(u_p);
+		} //for
+
+		final long[] matchMask = new long[n * nWords];	// the query vertices which each local vertex matches
+		final long[] childMask = new long[n * nWords];	// the query vertices which the children of each local vertex may match
+		mg.matchMask = matchMask;
+		for(int q = 0; q < nQuery; q++) {
+			int u = mg.qIds[q];
+			int label = query.getLabel(u);
+			boolean hasChild = mg.qChildren[q].length != 0;
+			if(dualSimSet.get(u) == null)
+				continue;
+			for(int v : dualSimSet.get(u)) {
+				int i = Arrays.binarySearch(mg.ids, v);
+				mg.labels[i] = label;
+				matchMask[i * nWords + (q >>> 6)] |= 1L << q;
+				for(int w = 0; w < nWords; w++)
+					childMask[i * nWords + w] |= mg.qChildMask[q * nWords + w];
+				mg.hasQueryChild[i] |= hasChild;
+			} //for
+		} //for
+
+		// first pass: the number of kept children of each vertex
+		final int[] degree = new int[n];
+		parallelFor(n, new RangeBody() {
+			public void run(int lo, int hi) {
+				for(int i = lo; i < hi; i++)
+					degree[i] = mg.scanChildren(dataGraph, i, matchMask, childMask, nWords, null, 0);
+			}
+		});
+		mg.offsets = new int[n + 1];
+		for(int i = 0; i < n; i++)
+			mg.offsets[i + 1] = mg.offsets[i] + degree[i];
+
+		// second pass: the kept children themselves
+		mg.targets = new int[mg.offsets[n]];
+		parallelFor(n, new RangeBody() {
+			public void run(int lo, int hi) {
+				for(int i = lo; i < hi; i++)
+					mg.scanChildren(dataGraph, i, matchMask, childMask, nWords, mg.targets, mg.offsets[i]);
+			}
+		});
+
+		// the reverse index by counting sort of the edges on their targets
+		mg.rOffsets = new int[n + 1];
+		for(int t : mg.targets)
+			mg.rOffsets[t + 1] ++;
+		for(int i = 0; i < n; i++)
+			mg.rOffsets[i + 1] += mg.rOffsets[i];
+		mg.sources = new int[mg.targets.length];
+		int[] next = Arrays.copyOf(mg.rOffsets, n);
+		for(int i = 0; i < n; i++) {
+			for(int e = mg.offsets[i]; e < mg.offsets[i + 1]; e++)
+				mg.sources[next[mg.targets[e]] ++] = i;
+		} //for
+		return mg;
+	} //build
+
+	/**
+	 * Scans the children of a local vertex in the data graph and finds the ones which are kept in the match graph
+	 * @param out where the local ids of the kept children are written; null to only count them
+	 * @param from the first index of out to write
+	 * @return the number of kept children
+	 */
+	private int scanChildren(Graph dataGraph, int i, long[] matchMask, long[] childMask, int nWords, int[] out, int from) {
+		int count = 0;
+		for(int child : dataGraph.getChildren(ids[i])) {
+			int j = Arrays.binarySearch(ids, child);
+			if(j < 0)
+				continue;
+			for(int w = 0; w < nWords; w++) {
+				if((childMask[i * nWords + w] & matchMask[j * nWords + w]) != 0) {
+					if(out != null)
+						out[from + count] = j;
+					count ++;
+					break;
+				} //if
+			} //for
+		} //for
+		return count;
+	}
+
+	/**
+	 * Returns the number of vertices of the match graph
+	 */
+	public int getNumVertices() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the local id of a data graph vertex
+	 * @param id the data graph id
+	 * @return the local id; a negative number when the vertex is not in the match graph
+	 */
+	public int localId(int id) {
+		return Arrays.binarySearch(ids, id);
+	}
+
+	/**
+	 * Converts the match graph to a SmallGraph with data graph ids. Its parentIndex is filled too, 
+	 * so the balls built on it do not need to build it again.
+	 * @return the same graph as DualSimulation.getResultMatchGraph
+	 */
+	public SmallGraph toSmallGraph() {
+		int n = ids.length;
+		SmallGraph sg = new SmallGraph();
+		sg.vertices = new HashMap<Integer, Set<Integer>>(n);
+		sg.labels = new HashMap<Integer, Integer>(n);
+		sg.parentIndex = new HashMap<Integer, Set<Integer>>(n);
+		for(int i = 0; i < n; i++) {
+			sg.labels.put(ids[i], labels[i]);
+			if(hasQueryChild[i]) {
+				Set<Integer> children = new HashSet<Integer>(offsets[i + 1] - offsets[i]);
+				for(int e = offsets[i]; e < offsets[i + 1]; e++)
+					children.add(ids[targets[e]]);
+				sg.vertices.put(ids[i], children);
+			} //if
+			if(rOffsets[i + 1] > rOffsets[i]) {
+				Set<Integer> parents = new HashSet<Integer>(rOffsets[i + 1] - rOffsets[i]);
+				for(int e = rOffsets[i]; e < rOffsets[i + 1]; e++)
+					parents.add(ids[sources[e]]);
+				sg.parentIndex.put(ids[i], parents);
+			} //if
+		} //for
+		return sg;
+	}
+
+	/**
+	 * The body of a parallel loop over a range of local vertices
+	 */
+	private interface RangeBody {
+		void run(int lo, int hi);
+	}
+
+	/**
+	 * Runs the body over [0, n) in chunks of GRAIN vertices; in the calling thread when n is small
+	 */
+	private static void parallelFor(int n, final RangeBody body) {
+		if(n <= GRAIN)
+			body.run(0, n);
+		else
+			ForkJoinPool.commonPool().invoke(new RangeTask(body, 0, n));
+	}
+
+	/**
+	 * Splits a range until it is not bigger than GRAIN
+	 */
+	@SuppressWarnings("serial")
+	private static class RangeTask extends RecursiveAction {
+		private final RangeBody body;
+		private final int lo, hi;
+
+		RangeTask(RangeBody body, int lo, int hi) {
+			this.body = body;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= GRAIN) {
+				body.run(lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new RangeTask(body, lo, mid), new RangeTask(body, mid, hi));
+		}
+	} // RangeTask
+
+} //class
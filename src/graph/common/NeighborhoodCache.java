@@ -0,0 +1,203 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.common;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the undirected r-hop neighborhoods of the vertices of a data graph, shared by all the queries.
+ * A neighborhood is kept as the sorted array of its vertex ids under the key (center, radius).
+ * The memory of the entries is accounted in bytes (the arrays and the map entries), and the least recently used 
+ * neighborhoods are evicted when the capacity is exceeded. It can be used by parallel workers.
+ * The cached neighborhoods are not updated with the data graph; clear() must be called after the graph is changed.
+ * @author Arash Fard
+ */
+public class NeighborhoodCache {
+	/**
+	 * the bytes of one map entry besides its array: the LinkedHashMap entry (40), the Long key (16) and the table slot (8)
+	 */
+	public static final long ENTRY_BYTES = 64;
+
+	private final Graph dataGraph;
+	private final long capacity;		// the maximum number of bytes of the cached entries
+	private long usedBytes = 0;
+	private final LinkedHashMap<Long, int[]> cache = new LinkedHashMap<Long, int[]>(256, 0.75f, true); // in access order
+
+	public long nHits = 0;
+	public long nMisses = 0;
+	public long nEvictions = 0;
+
+	/**
+	 * the BFS buffers of each thread
+	 */
+	private final ThreadLocal<Bfs> scratch = new ThreadLocal<Bfs>() {
+		@Override
+		protected Bfs initialValue() {
+			return new Bfs();
+		}
+	};
+
+	/**
+	 * Constructor
+	 * @param dataGraph the data graph of the neighborhoods; its parent index is built here
+	 * @param capacity the maximum number of bytes of the cached neighborhoods
+	 */
+	public NeighborhoodCache(Graph dataGraph, long capacity) {
+		this.dataGraph = dataGraph;
+		this.capacity = capacity;
+		dataGraph.buildParentIndex();
+	}
+
+	/**
+	 * Returns the neighborhood of a vertex from the cache, or computes and caches it
+	 * @param center the center of the neighborhood
+	 * @param radius the number of hops
+	 * @return the sorted ids of the vertices within radius hops of center in the underlying undirected graph 
+	 * 		(including the center); it must not be modified
+	 */
+	public int[] get(int center, int radius) {
+		Long key = key(center, radius);
+		synchronized(this) {
+			int[] neighborhood = cache.get(key);
+			if(neighborhood != null) {
+				nHits++;
+				return neighborhood;
+			}
+			nMisses++;
+		}
+		int[] neighborhood = scratch.get().neighborhood(dataGraph, center, radius); // computed out of the lock
+		long bytes = sizeOf(neighborhood);
+		synchronized(this) {
+			if(bytes > capacity || cache.containsKey(key))
+				return neighborhood; // too big to be cached, or already cached by another worker
+			cache.put(key, neighborhood);
+			usedBytes += bytes;
+			Iterator<Map.Entry<Long, int[]>> it = cache.entrySet().iterator();
+			while(usedBytes > capacity && it.hasNext()) { // evicting the least recently used entries
+				Map.Entry<Long, int[]> eldest = it.next();
+				usedBytes -= sizeOf(eldest.getValue());
+				it.remove();
+				nEvictions++;
+			} //while
+		}
+		return neighborhood;
+	} //get
+
+	/**
+	 * Returns the number of bytes of a cached neighborhood: the int array with its header, 
+	 * padded to 8 bytes, plus its map entry
+	 * @param neighborhood the array of a neighborhood
+	 * @return the number of bytes
+	 */
+	public static long sizeOf(int[] neighborhood) {
+		return ((16 + 4L * neighborhood.length + 7) & ~7L) + ENTRY_BYTES;
+	}
+
+	/**
+	 * Returns the number of bytes of the cached neighborhoods
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Returns the number of cached neighborhoods
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Removes all the neighborhoods; it must be called when the data graph is changed
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		usedBytes = 0;
+	}
+
+	/**
+	 * Returns the statistics of the cache as a string
+	 */
+	public synchronized String toString() {
+		return "neighborhoods: " + cache.size() + ", bytes: " + usedBytes + "/" + capacity 
+				+ ", hits: " + nHits + ", misses: " + nMisses + ", evictions: " + nEvictions;
+	}
+
+	/**
+	 * The key of a neighborhood
+	 */
+	private static Long key(int center, int radius) {
+		return ((long) center << 32) | (radius & 0xffffffffL);
+	}
+
+	/**
+	 * The reusable BFS buffers of one thread
+	 */
+	private static class Bfs {
+		private int epoch = 0;
+		private int[] stamp = new int[0];	// stamp[v] == epoch when v is visited by the current BFS
+		private int[] queue = new int[16];
+
+		/**
+		 * Finds the vertices within radius hops of center, following both the children and the parents
+		 * @return the sorted ids of the vertices
+		 */
+		int[] neighborhood(Graph g, int center, int radius) {
+			int n = g.getNumVertices();
+			if(stamp.length < n) {
+				stamp = new int[n];
+				epoch = 0;
+			} //if
+			if(++epoch == Integer.MAX_VALUE) {
+				Arrays.fill(stamp, 0);
+				epoch = 1;
+			} //if
+			int size = 0;
+			queue[size++] = center;
+			stamp[center] = epoch;
+			int head = 0;
+			for(int d = 0; d < radius && head < size; d++) {
+				int levelEnd = size;
+				for(; head < levelEnd; head++) {
+					int v = queue[head];
+					for(int c : g.getChildren(v))
+						size = visit(c, size);
+					for(int p : g.pre(v))
+						size = visit(p, size);
+				} //for
+			} //for
+			int[] result = Arrays.copyOf(queue, size);
+			Arrays.sort(result);
+			return result;
+		}
+
+		private int visit(int v, int size) {
+			if(stamp[v] == epoch)
+				return size;
+			stamp[v] = epoch;
+			if(size == queue.length)
+				queue = Arrays.copyOf(queue, 2 * size);
+			queue[size] = v;
+			return size + 1;
+		}
+	} // Bfs
+
+} //class
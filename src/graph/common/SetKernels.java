@@ -0,0 +1,391 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.common;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The inner kernels of the refinement loops: intersection, intersection-emptiness and and-not over 
+ * sorted int arrays and over bitmaps (long[] words), plus the label-histogram comparison of the cardinality filter.
+ * The bitmap loops are plain word loops, which the JIT unrolls and vectorizes, and Long.bitCount is compiled 
+ * to the popcount instruction. For sorted arrays the merge or the galloping kernel is selected at runtime 
+ * based on the ratio of the sizes; the main method is a microbenchmark which calibrates that ratio.
+ * @author Arash Fard
+ */
+public class SetKernels {
+
+	/**
+	 * galloping is used instead of merging when the larger array is at least this many times bigger than the smaller one
+	 */
+	public static int GALLOP_RATIO = 16;
+
+	/********************************************************************************
+	 * Intersects two sorted arrays
+	 * @param a	the first sorted array
+	 * @param na the number of used elements of a
+	 * @param b the second sorted array
+	 * @param nb the number of used elements of b
+	 * @param out the output array; its length must be at least min(na, nb). It may be the same array as a or b.
+	 * @return the number of elements written to out
+	 */
+	public static int intersect(int[] a, int na, int[] b, int nb, int[] out) {
+		if(na > nb)
+			return intersect(b, nb, a, na, out);
+		if(na == 0)
+			return 0;
+		if(nb / na >= GALLOP_RATIO)
+			return intersectGallop(a, na, b, nb, out);
+		return intersectMerge(a, na, b, nb, out);
+	} //intersect
+
+	/**
+	 * Linear merge of two sorted arrays
+	 */
+	static int intersectMerge(int[] a, int na, int[] b, int nb, int[] out) {
+		int i = 0, j = 0, n = 0;
+		while(i < na && j < nb) {
+			int x = a[i], y = b[j];
+			if(x < y) i++;
+			else if(x > y) j++;
+			else {
+				out[n++] = x;
+				i++; j++;
+			}
+		} //while
+		return n;
+	} //intersectMerge
+
+	/**
+	 * Intersection of a small sorted array with a much larger one by exponential search
+	 */
+	static int intersectGallop(int[] small, int ns, int[] large, int nl, int[] out) {
+		int n = 0, lo = 0;
+		for(int i = 0; i < ns && lo < nl; i++) {
+			int x = small[i];
+			lo = gallop(large, lo, nl, x);
+			if(lo < nl && large[lo] == x) {
+				out[n++] = x;
+				lo++;
+			}
+		} //for
+		return n;
+	} //intersectGallop
+
+	/**
+	 * Finds the first index in [from, to) of a sorted array whose element is not smaller than the key
+	 */
+	private static int gallop(int[] a, int from, int to, int key) {
+		int step = 1, hi = from;
+		while(hi < to && a[hi] < key) {
+			from = hi + 1;
+			hi += step;
+			step <<= 1;
+		} //while
+		if(hi > to) hi = to;
+		while(from < hi) {	// binary search in [from, hi)
+			int mid = (from + hi) >>> 1;
+			if(a[mid] < key) from = mid + 1;
+			else hi = mid;
+		} //while
+		return from;
+	} //gallop
+
+	/********************************************************************************
+	 * Tests if two sorted arrays have a common element; stops at the first one
+	 * @return true when the intersection is not empty
+	 */
+	public static boolean intersects(int[] a, int na, int[] b, int nb) {
+		if(na > nb)
+			return intersects(b, nb, a, na);
+		if(na == 0)
+			return false;
+		if(nb / na >= GALLOP_RATIO) {
+			int lo = 0;
+			for(int i = 0; i < na && lo < nb; i++) {
+				lo = gallop(b, lo, nb, a[i]);
+				if(lo < nb && b[lo] == a[i])
+					return true;
+			} //for
+			return false;
+		} //if
+		int i = 0, j = 0;
+		while(i < na && j < nb) {
+			if(a[i] < b[j]) i++;
+			else if(a[i] > b[j]) j++;
+			else return true;
+		} //while
+		return false;
+	} //intersects
+
+	/********************************************************************************
+	 * Writes the elements of the sorted array a which are not in the sorted array b
+	 * @param out the output array; its length must be at least na. It may be the same array as a.
+	 * @return the number of elements written to out
+	 */
+	public static int andNot(int[] a, int na, int[] b, int nb, int[] out) {
+		int i = 0, j = 0, n = 0;
+		while(i < na) {
+			if(j == nb || a[i] < b[j]) out[n++] = a[i++];
+			else if(a[i] > b[j]) j++;
+			else { i++; j++; }
+		} //while
+		return n;
+	} //andNot
+
+	/********************************************************************************
+	 * out = a AND b over the common words of the bitmaps
+	 * @return the number of set bits in out
+	 */
+	public static int and(long[] a, long[] b, long[] out) {
+		int n = Math.min(a.length, b.length);
+		int count = 0;
+		for(int i = 0; i < n; i++) {
+			long w = a[i] & b[i];
+			out[i] = w;
+			count += Long.bitCount(w);
+		} //for
+		for(int i = n; i < out.length; i++)
+			out[i] = 0;
+		return count;
+	} //and
+
+	/**
+	 * a = a AND b
+	 * @return true when a is changed
+	 */
+	public static boolean andInPlace(long[] a, long[] b) {
+		int n = Math.min(a.length, b.length);
+		long changed = 0;
+		for(int i = 0; i < n; i++) {
+			long w = a[i] & b[i];
+			changed |= w ^ a[i];
+			a[i] = w;
+		} //for
+		for(int i = n; i < a.length; i++) {
+			changed |= a[i];
+			a[i] = 0;
+		} //for
+		return changed != 0;
+	} //andInPlace
+
+	/**
+	 * out = a AND NOT b
+	 * @return the number of set bits in out
+	 */
+	public static int andNot(long[] a, long[] b, long[] out) {
+		int n = Math.min(a.length, b.length);
+		int count = 0;
+		for(int i = 0; i < n; i++) {
+			long w = a[i] & ~b[i];
+			out[i] = w;
+			count += Long.bitCount(w);
+		} //for
+		for(int i = n; i < a.length; i++) {
+			out[i] = a[i];
+			count += Long.bitCount(a[i]);
+		} //for
+		return count;
+	} //andNot
+
+	/**
+	 * Tests if two bitmaps have a common set bit; stops at the first common word
+	 */
+	public static boolean intersects(long[] a, long[] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			if((a[i] & b[i]) != 0)
+				return true;
+		} //for
+		return false;
+	} //intersects
+
+	/**
+	 * Tests if the set bits of a are a subset of the set bits of b
+	 */
+	public static boolean isSubset(long[] a, long[] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			if((a[i] & ~b[i]) != 0)
+				return false;
+		} //for
+		for(int i = n; i < a.length; i++) {
+			if(a[i] != 0)
+				return false;
+		} //for
+		return true;
+	} //isSubset
+
+	/**
+	 * Returns the number of set bits of a bitmap
+	 */
+	public static int popcount(long[] a) {
+		int count = 0;
+		for(long w : a)
+			count += Long.bitCount(w);
+		return count;
+	} //popcount
+
+	/********************************************************************************
+	 * The label-histogram comparison of the cardinality filter 
+	 * @param have the number of neighbors with each (dense) label id
+	 * @param need the number of required neighbors with each (dense) label id
+	 * @return true when have[l] >= need[l] for every label l
+	 */
+	public static boolean covers(int[] have, int[] need) {
+		int diff = 0;
+		for(int l = 0; l < need.length; l++)
+			diff |= have[l] - need[l];	// the sign bit is set when have[l] < need[l]
+		return diff >= 0;
+	} //covers
+
+	/**
+	 * Microbenchmark of the kernels against the HashSet-based code, and calibration of GALLOP_RATIO
+	 * args[0] the number of repetitions (optional)
+	 */
+	public static void main(String[] args) {
+		int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		Random rand = new Random(1);
+		int universe = 1 << 20;
+		int[] sizes = {16, 256, 4096};
+		int[] ratios = {1, 4, 16, 64, 256};
+		long sink = 0;
+
+		System.out.println("sorted int-array intersection (ns/op): small\t ratio\t hashSet\t merge\t gallop");
+		int bestRatio = Integer.MAX_VALUE;
+		for(int ratio : ratios) {
+			boolean gallopWins = true;
+			for(int size : sizes) {
+				int[] a = randomSorted(rand, size, universe);
+				int[] b = randomSorted(rand, size * ratio, universe);
+				int[] out = new int[size];
+				Set<Integer> setA = toSet(a), setB = toSet(b);
+
+				long t = System.nanoTime();
+				for(int r = 0; r < reps; r++) {
+					Set<Integer> temp = new HashSet<Integer>(setA);
+					temp.retainAll(setB);
+					sink += temp.size();
+				}
+				long tHash = (System.nanoTime() - t) / reps;
+				t = System.nanoTime();
+				for(int r = 0; r < reps; r++)
+					sink += intersectMerge(a, a.length, b, b.length, out);
+				long tMerge = (System.nanoTime() - t) / reps;
+				t = System.nanoTime();
+				for(int r = 0; r < reps; r++)
+					sink += intersectGallop(a, a.length, b, b.length, out);
+				long tGallop = (System.nanoTime() - t) / reps;
+				if(tGallop >= tMerge)
+					gallopWins = false;
+				System.out.println("\t" + size + "\t " + ratio + "\t " + tHash + "\t " + tMerge + "\t " + tGallop);
+			} //for
+			if(gallopWins && ratio < bestRatio)
+				bestRatio = ratio;
+		} //for
+		if(bestRatio != Integer.MAX_VALUE)
+			GALLOP_RATIO = bestRatio;
+		System.out.println("calibrated GALLOP_RATIO: " + GALLOP_RATIO);
+
+		System.out.println("bitmap kernels (ns/op): words\t and\t andNot\t intersects\t popcount\t hashSet retainAll");
+		for(int words : new int[] {16, 1024, 16384}) {
+			long[] a = new long[words], b = new long[words], out = new long[words];
+			for(int i = 0; i < words; i++) {
+				a[i] = rand.nextLong();
+				b[i] = rand.nextLong() & rand.nextLong();
+			}
+			int bitReps = Math.max(1, reps * 16 / words);
+			long t = System.nanoTime();
+			for(int r = 0; r < bitReps; r++) sink += and(a, b, out);
+			long tAnd = (System.nanoTime() - t) / bitReps;
+			t = System.nanoTime();
+			for(int r = 0; r < bitReps; r++) sink += andNot(a, b, out);
+			long tAndNot = (System.nanoTime() - t) / bitReps;
+			b[words - 1] |= a[words - 1];
+			for(int i = 0; i < words - 1; i++) b[i] &= ~a[i];	// only the last word is common
+			t = System.nanoTime();
+			for(int r = 0; r < bitReps; r++) sink += intersects(a, b) ? 1 : 0;
+			long tIntersects = (System.nanoTime() - t) / bitReps;
+			t = System.nanoTime();
+			for(int r = 0; r < bitReps; r++) sink += popcount(a);
+			long tPop = (System.nanoTime() - t) / bitReps;
+			Set<Integer> setA = bitsToSet(a), setB = bitsToSet(b);
+			int setReps = Math.max(1, bitReps / 64);
+			t = System.nanoTime();
+			for(int r = 0; r < setReps; r++) {
+				Set<Integer> temp = new HashSet<Integer>(setA);
+				temp.retainAll(setB);
+				sink += temp.size();
+			}
+			long tHash = (System.nanoTime() - t) / setReps;
+			System.out.println("\t" + words + "\t " + tAnd + "\t " + tAndNot + "\t " + tIntersects + "\t " + tPop + "\t " + tHash);
+		} //for
+
+		System.out.println("label histogram (ns/op): labels\t covers\t list removal");
+		for(int nLabels : new int[] {4, 16, 64}) {
+			int[] have = new int[nLabels], need = new int[nLabels];
+			java.util.List<Integer> needList = new java.util.ArrayList<Integer>();
+			for(int l = 0; l < nLabels; l++) {
+				need[l] = rand.nextInt(3);
+				have[l] = need[l] + rand.nextInt(2);
+				for(int k = 0; k < need[l]; k++) needList.add(l);
+			}
+			long t = System.nanoTime();
+			for(int r = 0; r < reps * 16; r++) sink += covers(have, need) ? 1 : 0;
+			long tCovers = (System.nanoTime() - t) / (reps * 16);
+			t = System.nanoTime();
+			for(int r = 0; r < reps; r++) {
+				java.util.List<Integer> counter = new java.util.ArrayList<Integer>(needList);
+				for(int l = 0; l < nLabels; l++)
+					for(int k = 0; k < have[l]; k++) counter.remove(Integer.valueOf(l));
+				sink += counter.size();
+			}
+			long tList = (System.nanoTime() - t) / reps;
+			System.out.println("\t" + nLabels + "\t " + tCovers + "\t " + tList);
+		} //for
+		System.out.println("(checksum " + sink + ")");
+	} //main
+
+	private static int[] randomSorted(Random rand, int size, int universe) {
+		Set<Integer> set = new HashSet<Integer>(size * 2);
+		while(set.size() < size)
+			set.add(rand.nextInt(universe));
+		int[] a = new int[size];
+		int i = 0;
+		for(int x : set) a[i++] = x;
+		Arrays.sort(a);
+		return a;
+	}
+
+	private static Set<Integer> toSet(int[] a) {
+		Set<Integer> set = new HashSet<Integer>(a.length * 2);
+		for(int x : a) set.add(x);
+		return set;
+	}
+
+	private static Set<Integer> bitsToSet(long[] bits) {
+		Set<Integer> set = new HashSet<Integer>();
+		for(int i = 0; i < bits.length; i++)
+			for(long w = bits[i]; w != 0; w &= w - 1)
+				set.add(i * 64 + Long.numberOfTrailingZeros(w));
+		return set;
+	}
+
+} //class
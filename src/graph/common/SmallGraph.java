@@ -524,9 +524,9 @@ public class SmallGraph {
 					vertices.get(oldVertex).add(newVertex);
 
 				if(parentIndex != null) {
-					Set<Integer> pSet = new HashSet<Integer>();
-					pSet.add(oldVertex);
-					parentIndex.put(newVertex, pSet);
+					if(parentIndex.get(newVertex) == null)
+						parentIndex.put(newVertex, new HashSet<Integer>());
+					parentIndex.get(newVertex).add(oldVertex);
 				} //if				
 			}//if-else
 		} //for
@@ -537,7 +537,7 @@ public class SmallGraph {
 			else {
 				Set<Integer> lSet = new HashSet<Integer>();
 				lSet.add(newVertex);
-				parentIndex.put(newLabel, lSet);
+				labelIndex.put(newLabel, lSet);
 			}
 		}//if
 		eccentricity = null;
@@ -0,0 +1,46 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Ball;
+import graph.common.MatchGraph;
+
+/**
+ * The score of a result ball for the top-k mode of tight simulation (see BallScores for the usual ones).
+ * Besides the score it gives an upper bound for the score of the ball of each vertex of the match graph, 
+ * so the centers which cannot beat the k-th best score are skipped before their balls are built.
+ * @author Arash Fard
+ */
+public interface BallScore {
+
+	/**
+	 * Returns the score of a ball which passed the filter; a higher score is better
+	 * @param ball the result ball
+	 * @return the score
+	 */
+	double score(Ball ball);
+
+	/**
+	 * Returns an upper bound for the score of the ball of each vertex of the match graph
+	 * @param matchGraph the compact match graph of the query
+	 * @param radius the radius of the balls
+	 * @return the bound of local vertex i at index i
+	 */
+	double[] bounds(MatchGraph matchGraph, int radius);
+
+} //interface
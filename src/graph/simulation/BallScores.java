@@ -0,0 +1,156 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Ball;
+import graph.common.MatchGraph;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The usual scores of the top-k mode of tight simulation, and the bounds they are built on.
+ * A ball of radius r around c is inside the r-hop neighborhood of c in the match graph, and only loses edges 
+ * by the filter, so an additive score is bounded by the sum of the weights over r hops, and the density 
+ * by the biggest out-degree within r hops; both are computed for all the vertices with r passes over the edges.
+ * @author Arash Fard
+ */
+public class BallScores {
+
+	/**
+	 * the number of vertices in the ball
+	 */
+	public static final BallScore SIZE = new BallScore() {
+		@Override
+		public double score(Ball ball) {
+			return ball.nodesInBall.size();
+		}
+
+		@Override
+		public double[] bounds(MatchGraph matchGraph, int radius) {
+			double[] one = new double[matchGraph.getNumVertices()];
+			Arrays.fill(one, 1);
+			return sumWithin(matchGraph, radius, one);
+		}
+	};
+
+	/**
+	 * the match density of the ball: the number of its edges per vertex
+	 */
+	public static final BallScore DENSITY = new BallScore() {
+		@Override
+		public double score(Ball ball) {
+			long nEdges = 0;
+			for(int v : ball.nodesInBall)
+				nEdges += ball.post(v).size();
+			return (double) nEdges / Math.max(1, ball.nodesInBall.size());
+		}
+
+		@Override
+		public double[] bounds(MatchGraph matchGraph, int radius) {
+			int n = matchGraph.getNumVertices();
+			double[] degree = new double[n];
+			for(int v = 0; v < n; v++)
+				degree[v] = matchGraph.offsets[v + 1] - matchGraph.offsets[v];
+			return maxWithin(matchGraph, radius, degree);
+		}
+	};
+
+	/**
+	 * Returns the score which sums the weights of the vertices of the ball
+	 * @param weights the weight of each data graph vertex (not negative); the missing vertices weigh 0
+	 * @return the score
+	 */
+	public static BallScore weightSum(final Map<Integer, Double> weights) {
+		return new BallScore() {
+			@Override
+			public double score(Ball ball) {
+				double sum = 0;
+				for(int v : ball.nodesInBall)
+					sum += weight(v);
+				return sum;
+			}
+
+			@Override
+			public double[] bounds(MatchGraph matchGraph, int radius) {
+				double[] w = new double[matchGraph.getNumVertices()];
+				for(int v = 0; v < w.length; v++)
+					w[v] = weight(matchGraph.ids[v]);
+				return sumWithin(matchGraph, radius, w);
+			}
+
+			private double weight(int v) {
+				Double w = weights.get(v);
+				return (w == null) ? 0 : w;
+			}
+		};
+	} //weightSum
+
+	/**
+	 * Returns an upper bound for the sum of the weights of the vertices within radius hops of each vertex 
+	 * (on the underlying undirected graph): b_0(v) = w(v) and b_i(v) = w(v) + the sum of b_{i-1} over the neighbors of v
+	 * @param mg the match graph
+	 * @param radius the number of hops
+	 * @param weight the weight of each local vertex (not negative)
+	 * @return the bound of each local vertex; never more than the sum of all the weights
+	 */
+	public static double[] sumWithin(MatchGraph mg, int radius, double[] weight) {
+		int n = mg.getNumVertices();
+		double total = 0;
+		for(double w : weight)
+			total += w;
+		double[] bound = weight.clone();
+		for(int i = 0; i < radius; i++) {
+			double[] next = new double[n];
+			for(int v = 0; v < n; v++) {
+				double sum = weight[v];
+				for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++)
+					sum += bound[mg.targets[e]];
+				for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++)
+					sum += bound[mg.sources[e]];
+				next[v] = Math.min(sum, total);
+			} //for
+			bound = next;
+		} //for
+		return bound;
+	} //sumWithin
+
+	/**
+	 * Returns the biggest value within radius hops of each vertex (on the underlying undirected graph)
+	 * @param mg the match graph
+	 * @param radius the number of hops
+	 * @param value the value of each local vertex
+	 * @return the maximum of each local vertex
+	 */
+	public static double[] maxWithin(MatchGraph mg, int radius, double[] value) {
+		int n = mg.getNumVertices();
+		double[] max = value.clone();
+		for(int i = 0; i < radius; i++) {
+			double[] next = max.clone();
+			for(int v = 0; v < n; v++) {
+				for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++)
+					next[v] = Math.max(next[v], max[mg.targets[e]]);
+				for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++)
+					next[v] = Math.max(next[v], max[mg.sources[e]]);
+			} //for
+			max = next;
+		} //for
+		return max;
+	} //maxWithin
+
+} //class
@@ -0,0 +1,423 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.SetKernels;
+import graph.common.SmallGraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dual simulation and new-dual simulation on a small data graph of type SmallGraph (a ball, a query or a polytree)
+ * with dense bit matrices. The vertices of the data graph get local indexes, each phi(u) and each row of the 
+ * children and the parents is a long[] bitmap, and an edge (u, u_c) of the query refines the relation by word-level 
+ * operations: phi(u_c) &= the OR of the child rows of phi(u), and phi(u) &= the OR of the parent rows of phi(u_c).
+ * The results are the same as the SmallGraph versions in DualSimulation, which use it below MAX_VERTICES.
+ * @author Arash Fard
+ */
+public class BitDualSimulation {
+
+	/**
+	 * the biggest data graph which is simulated with the bit matrices (two matrices of n * n bits)
+	 */
+	public static int MAX_VERTICES = 1024;
+
+	private final int n;				// the number of data vertices
+	private final int nWords;			// the number of words of a row
+	private final int[] ids;			// ids[i] is the id of local vertex i
+	private final int[] labels;			// labels[i] is the label of local vertex i
+	private final long[] childRows;		// the children of local vertex i are the words i*nWords ..
+	private final long[] parentRows;	// the parents of local vertex i are the words i*nWords ..
+	private final int mask;				// the open addressing table from the ids to the local indexes (mask + 1 slots)
+	private final int[] slotId;
+	private final int[] slotIndex;		// -1 for an empty slot
+
+	private final int nQuery;			// the number of query vertices
+	private final int[] qIds;			// qIds[q] is the id of dense query vertex q
+	private final int[] qLabels;		// qLabels[q] is the label of dense query vertex q
+	private final int[][] qChildren;	// the dense ids of the children of each query vertex
+	private final int[][] qParents;		// the dense ids of the parents of each query vertex
+	private final long[][] phi;			// phi[q] is the bitmap of the matches of dense query vertex q
+
+	/**
+	 * Builds the bit matrices of a data graph and the dense form of a query
+	 */
+	private BitDualSimulation(SmallGraph dataGraph, SmallGraph query) {
+		n = dataGraph.labels.size();
+		nWords = Math.max(1, (n + 63) >>> 6);
+		ids = new int[n];
+		labels = new int[n];
+		mask = Integer.highestOneBit(Math.max(1, 2 * n)) * 2 - 1;
+		slotId = new int[mask + 1];
+		slotIndex = new int[mask + 1];
+		Arrays.fill(slotIndex, -1);
+		int k = 0;
+		for(Map.Entry<Integer, Integer> entry : dataGraph.labels.entrySet()) {
+			ids[k] = entry.getKey();
+			labels[k] = entry.getValue();
+			int slot = hash(ids[k]) & mask;
+			while(slotIndex[slot] >= 0)
+				slot = (slot + 1) & mask;
+			slotId[slot] = ids[k];
+			slotIndex[slot] = k++;
+		} //for
+		childRows = new long[n * nWords];
+		parentRows = new long[n * nWords];
+		for(Map.Entry<Integer, Set<Integer>> entry : dataGraph.vertices.entrySet()) {
+			int i = indexOf(entry.getKey());
+			if(i < 0 || entry.getValue() == null)
+				continue;
+			for(int c : entry.getValue()) {
+				int j = indexOf(c);
+				if(j >= 0) {
+					childRows[i * nWords + (j >>> 6)] |= 1L << j;
+					parentRows[j * nWords + (i >>> 6)] |= 1L << i;
+				} //if
+			} //for
+		} //for
+
+		nQuery = query.labels.size();
+		qIds = new int[nQuery];
+		qLabels = new int[nQuery];
+		Map<Integer, Integer> dense = new HashMap<Integer, Integer>(nQuery);
+		for(int u : query.labels.keySet()) {
+			dense.put(u, dense.size());
+			qIds[dense.get(u)] = u;
+			qLabels[dense.get(u)] = query.labels.get(u);
+		} //for
+		qChildren = new int[nQuery][];
+		qParents = new int[nQuery][];
+		int[] nParents = new int[nQuery];
+		for(int q = 0; q < nQuery; q++) {
+			Set<Integer> children = query.vertices.get(qIds[q]);
+			qChildren[q] = new int[(children == null) ? 0 : children.size()];
+			int c = 0;
+			if(children != null) {
+				for(int u_c : children) {
+					qChildren[q][c++] = dense.get(u_c);
+					nParents[dense.get(u_c)] ++;
+				} //for
+			} //if
+		} //for
+		for(int q = 0; q < nQuery; q++)
+			qParents[q] = new int[nParents[q]];
+		Arrays.fill(nParents, 0);
+		for(int q = 0; q < nQuery; q++) {
+			for(int qc : qChildren[q])
+				qParents[qc][nParents[qc]++] = q;
+		} //for
+		phi = new long[nQuery][nWords];
+	}
+
+	private static int hash(int id) {
+		return id * 0x9E3779B9 >>> 7;
+	}
+
+	/**
+	 * Finds the local index of an id in the open addressing table; -1 when it is not a vertex of the data graph
+	 */
+	private int indexOf(int id) {
+		int slot = hash(id) & mask;
+		while(slotIndex[slot] >= 0) {
+			if(slotId[slot] == id)
+				return slotIndex[slot];
+			slot = (slot + 1) & mask;
+		} //while
+		return -1;
+	}
+
+	/*****************************************************************
+	 * Runs dual simulation when the data graph is a small SmallGraph (the same as DualSimulation.getDualSimSet)
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph  
+	 * @return The Dual simulation map; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>> getDualSimSet(SmallGraph dataGraph, SmallGraph query) {
+		BitDualSimulation sim = new BitDualSimulation(dataGraph, query);
+		if(! sim.labelRelation() || ! sim.refine())
+			return new HashMap<Integer, Set<Integer>>();
+		return sim.toMap(new HashMap<Integer, Set<Integer>>(sim.nQuery));
+	} //getDualSimSet
+
+	/*****************************************************************
+	 * Runs new-dual simulation when the data graph is a small SmallGraph (the same as DualSimulation.getNewDualSimSet)
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph  
+	 * @return The new-dual simulation map; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>> getNewDualSimSet(SmallGraph dataGraph, SmallGraph query) {
+		BitDualSimulation sim = new BitDualSimulation(dataGraph, query);
+		if(! sim.labelRelation() || ! sim.refineNewDual())
+			return new HashMap<Integer, Set<Integer>>();
+		return sim.toMap(new HashMap<Integer, Set<Integer>>(sim.nQuery));
+	} //getNewDualSimSet
+
+	/*****************************************************************
+	 * Refines a known relation by dual simulation (the same as DualSimulation.dualSimSetHelper)
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @param relation an initial relation match (will be altered and returned)
+	 * @return The refined relation; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>> dualSimSetHelper(SmallGraph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		BitDualSimulation sim = new BitDualSimulation(dataGraph, query);
+		if(! sim.fromMap(relation) || ! sim.refine())
+			return new HashMap<Integer, Set<Integer>>();
+		return sim.toMap(relation);
+	} //dualSimSetHelper
+
+	/*****************************************************************
+	 * Refines a known relation by new-dual simulation (the same as DualSimulation.newDualSimSetHelper)
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @param relation an initial relation match (will be altered and returned)
+	 * @return The refined relation; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>> newDualSimSetHelper(SmallGraph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		BitDualSimulation sim = new BitDualSimulation(dataGraph, query);
+		if(! sim.fromMap(relation) || ! sim.refineNewDual())
+			return new HashMap<Integer, Set<Integer>>();
+		return sim.toMap(relation);
+	} //newDualSimSetHelper
+
+	/**
+	 * Relates each query vertex to the data vertices with its label
+	 * @return false when a query vertex does not have any candidate
+	 */
+	private boolean labelRelation() {
+		Map<Integer, long[]> byLabel = new HashMap<Integer, long[]>();
+		for(int i = 0; i < n; i++) {
+			long[] row = byLabel.get(labels[i]);
+			if(row == null)
+				byLabel.put(labels[i], row = new long[nWords]);
+			row[i >>> 6] |= 1L << i;
+		} //for
+		for(int q = 0; q < nQuery; q++) {
+			long[] row = byLabel.get(qLabels[q]);
+			if(row == null)
+				return false;
+			System.arraycopy(row, 0, phi[q], 0, nWords);
+		} //for
+		return true;
+	}
+
+	/**
+	 * Takes the relation from a map; the ids which are not in the data graph are dropped
+	 * @return false when a query vertex does not have any candidate
+	 */
+	private boolean fromMap(Map<Integer, Set<Integer>> relation) {
+		for(int q = 0; q < nQuery; q++) {
+			for(int v : relation.get(qIds[q])) {
+				int i = indexOf(v);
+				if(i >= 0)
+					phi[q][i >>> 6] |= 1L << i;
+			} //for
+			if(isEmpty(phi[q]))
+				return false;
+		} //for
+		return true;
+	}
+
+	/**
+	 * Writes the relation into a map
+	 * @return the map
+	 */
+	private Map<Integer, Set<Integer>> toMap(Map<Integer, Set<Integer>> relation) {
+		for(int q = 0; q < nQuery; q++) {
+			Set<Integer> matches = new HashSet<Integer>();
+			for(int w = 0; w < nWords; w++) {
+				long word = phi[q][w];
+				while(word != 0) {
+					matches.add(ids[(w << 6) + Long.numberOfTrailingZeros(word)]);
+					word &= word - 1;
+				} //while
+			} //for
+			relation.put(qIds[q], matches);
+		} //for
+		return relation;
+	}
+
+	/**
+	 * Refines the relation to the dual simulation fixpoint
+	 * @return false when a query vertex loses all of its matches; true otherwise
+	 */
+	private boolean refine() {
+		long[] reach = new long[nWords];
+		boolean alter = true;
+		while(alter) {
+			alter = false;
+			for(int q = 0; q < nQuery; q++) {
+				for(int qc : qChildren[q]) {
+					// phi(u_c) keeps the vertices with a parent in phi(u)
+					union(phi[q], childRows, reach);
+					int changed = retain(phi[qc], reach);
+					if(changed < 0)
+						return false;
+					// phi(u) keeps the vertices with a child in phi(u_c)
+					union(phi[qc], parentRows, reach);
+					int changedParent = retain(phi[q], reach);
+					if(changedParent < 0)
+						return false;
+					if(changed > 0 || changedParent > 0)
+						alter = true;
+				} //for
+			} //for
+		} //while
+		return true;
+	}
+
+	/**
+	 * Refines the relation to the new-dual simulation fixpoint: dual simulation and the cardinality filter
+	 * @return false when a query vertex loses all of its matches; true otherwise
+	 */
+	private boolean refineNewDual() {
+		boolean alter = true;
+		while(alter) {
+			if(! refine())
+				return false;
+			alter = cardinalityFilter();
+			for(int q = 0; q < nQuery && alter; q++) {
+				if(isEmpty(phi[q]))
+					return false;
+			} //for
+		} //while
+		return true;
+	}
+
+	/**
+	 * Removes the matches which cannot have enough matching children or parents 
+	 * (see DualSimulation.dualCardinalityFilter)
+	 * @return true when the relation is altered
+	 */
+	private boolean cardinalityFilter() {
+		Map<Integer, Integer> labelIds = new HashMap<Integer, Integer>();
+		int[] qLabel = new int[nQuery];
+		for(int q = 0; q < nQuery; q++) {
+			if(! labelIds.containsKey(qLabels[q]))
+				labelIds.put(qLabels[q], labelIds.size());
+			qLabel[q] = labelIds.get(qLabels[q]);
+		} //for
+		int[] dataLabel = new int[n];	// the dense id of the label of each data vertex; -1 when the query does not have it
+		for(int i = 0; i < n; i++) {
+			Integer id = labelIds.get(labels[i]);
+			dataLabel[i] = (id == null) ? -1 : id;
+		} //for
+
+		int[] have = new int[labelIds.size()];
+		int[] needChildren = new int[labelIds.size()];
+		int[] needParents = new int[labelIds.size()];
+		long[] matchChild = new long[nWords];	// the vertices which match a child of u
+		long[] matchParent = new long[nWords];	// the vertices which match a parent of u
+		boolean alter = false;
+		for(int q = 0; q < nQuery; q++) {
+			Arrays.fill(needChildren, 0);
+			Arrays.fill(needParents, 0);
+			Arrays.fill(matchChild, 0L);
+			Arrays.fill(matchParent, 0L);
+			for(int qc : qChildren[q]) {
+				needChildren[qLabel[qc]] ++;
+				or(matchChild, phi[qc]);
+			} //for
+			for(int qp : qParents[q]) {
+				needParents[qLabel[qp]] ++;
+				or(matchParent, phi[qp]);
+			} //for
+			for(int w = 0; w < nWords; w++) {
+				long word = phi[q][w];
+				while(word != 0) {
+					int v = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					boolean valid = covered(childRows, v, matchChild, dataLabel, have, needChildren) 
+							&& covered(parentRows, v, matchParent, dataLabel, have, needParents);
+					if(! valid) {
+						phi[q][v >>> 6] &= ~(1L << v);
+						alter = true;
+					} //if
+				} //while
+			} //for
+		} //for
+		return alter;
+	}
+
+	/**
+	 * Checks if the neighbors of v (in the rows) which are in match cover the needed label histogram
+	 */
+	private boolean covered(long[] rows, int v, long[] match, int[] dataLabel, int[] have, int[] need) {
+		Arrays.fill(have, 0);
+		for(int w = 0; w < nWords; w++) {
+			long word = rows[v * nWords + w] & match[w];
+			while(word != 0) {
+				int c = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if(dataLabel[c] >= 0)
+					have[dataLabel[c]] ++;
+			} //while
+		} //for
+		return SetKernels.covers(have, need);
+	}
+
+	/**
+	 * Computes the OR of the rows of the vertices in set
+	 */
+	private void union(long[] set, long[] rows, long[] out) {
+		Arrays.fill(out, 0L);
+		for(int w = 0; w < nWords; w++) {
+			long word = set[w];
+			while(word != 0) {
+				int v = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				int base = v * nWords;
+				for(int x = 0; x < nWords; x++)
+					out[x] |= rows[base + x];
+			} //while
+		} //for
+	}
+
+	/**
+	 * Intersects set with mask in place
+	 * @return -1 when set becomes empty; 1 when it is changed; 0 otherwise
+	 */
+	private int retain(long[] set, long[] mask) {
+		boolean changed = false, empty = true;
+		for(int w = 0; w < nWords; w++) {
+			long word = set[w] & mask[w];
+			changed |= (word != set[w]);
+			empty &= (word == 0);
+			set[w] = word;
+		} //for
+		return empty ? -1 : (changed ? 1 : 0);
+	}
+
+	private static void or(long[] a, long[] b) {
+		for(int w = 0; w < a.length; w++)
+			a[w] |= b[w];
+	}
+
+	private static boolean isEmpty(long[] set) {
+		for(long word : set) {
+			if(word != 0)
+				return false;
+		}
+		return true;
+	}
+
+} //class
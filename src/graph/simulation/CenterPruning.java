@@ -0,0 +1,256 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.MatchGraph;
+
+import java.util.Arrays;
+
+/**
+ * A pre-pass of tight simulation which removes the centers whose balls cannot pass the dual filter, 
+ * before the balls are built. The centers are matches of the selected query center and the radius is its 
+ * eccentricity, so the witnesses of a center in the global relation are always within the radius; i.e., bounds 
+ * like "every query label is reachable in the ball" never remove a center. What the global relation does not 
+ * guarantee is a cyclic support inside the ball: a match of a query vertex on a directed cycle needs an endless 
+ * path of matches, and in the finite ball that path closes a directed cycle. So for each strongly connected 
+ * component of the query, the ball must have a vertex on a directed cycle of the match graph among the matches 
+ * of that component. The distance of every vertex to such a cycle is found by one multi-source BFS per component.
+ * @author Arash Fard
+ */
+public class CenterPruning {
+	public int nCenters = 0;		// the number of checked centers
+	public int nCyclicComponents = 0;	// the number of the strongly connected components of the query with a cycle
+	public int nByCycleReach = 0;	// the number of centers removed because a cycle of matches is not within the radius
+	public long time = 0;			// the time of the pre-pass in ms
+
+	/**
+	 * Removes the hopeless centers
+	 * @param mg the compact match graph
+	 * @param centers the local ids of the centers
+	 * @param radius the radius of the balls
+	 * @return the local ids of the centers which may have a ball
+	 */
+	public int[] prune(MatchGraph mg, int[] centers, int radius) {
+		long startTime = System.currentTimeMillis();
+		nCenters += centers.length;
+		boolean[] alive = new boolean[mg.getNumVertices()];
+		for(int c : centers)
+			alive[c] = true;
+		int nAlive = centers.length;
+
+		for(long[] component : cyclicComponents(mg)) {
+			if(nAlive == 0)
+				break;
+			nCyclicComponents++;
+			int[] dist = distanceToCycle(mg, component, radius);
+			for(int c : centers) {
+				if(alive[c] && dist[c] < 0) {
+					alive[c] = false;
+					nAlive--;
+					nByCycleReach++;
+				}
+			} //for
+		} //for
+
+		int[] kept = new int[nAlive];
+		int k = 0;
+		for(int c : centers) {
+			if(alive[c])
+				kept[k++] = c;
+		}
+		time += System.currentTimeMillis() - startTime;
+		return kept;
+	} //prune
+
+	/**
+	 * Finds the strongly connected components of the query which have a directed cycle
+	 * @return the mask of the dense query vertices of each component
+	 */
+	private static long[][] cyclicComponents(MatchGraph mg) {
+		int nQuery = mg.qIds.length;
+		boolean[][] reach = new boolean[nQuery][];
+		for(int q = 0; q < nQuery; q++)
+			reach[q] = queryReach(mg, q);
+		long[][] components = new long[nQuery][];
+		int nComponents = 0;
+		boolean[] assigned = new boolean[nQuery];
+		for(int q = 0; q < nQuery; q++) {
+			if(assigned[q] || ! reach[q][q])	// reach[q][q] is set only when q is on a cycle
+				continue;
+			long[] mask = new long[mg.nWords];
+			for(int w = 0; w < nQuery; w++) {
+				if(reach[q][w] && reach[w][q]) {
+					assigned[w] = true;
+					mask[w >>> 6] |= 1L << w;
+				}
+			} //for
+			components[nComponents++] = mask;
+		} //for
+		return Arrays.copyOf(components, nComponents);
+	}
+
+	/**
+	 * Finds the dense query vertices reachable from a query vertex by at least one edge
+	 */
+	private static boolean[] queryReach(MatchGraph mg, int source) {
+		int nQuery = mg.qIds.length;
+		boolean[] reached = new boolean[nQuery];
+		int[] stack = new int[nQuery];
+		int top = 0;
+		for(int c : mg.qChildren[source]) {
+			if(! reached[c]) {
+				reached[c] = true;
+				stack[top++] = c;
+			}
+		} //for
+		while(top > 0) {
+			int q = stack[--top];
+			for(int c : mg.qChildren[q]) {
+				if(! reached[c]) {
+					reached[c] = true;
+					stack[top++] = c;
+				}
+			} //for
+		} //while
+		return reached;
+	}
+
+	/**
+	 * Finds the vertices within radius hops (in both directions) of a directed cycle of the match graph 
+	 * whose vertices match the query vertices of the component
+	 * @param component the mask of the query component
+	 * @return the distance of each local vertex to the nearest such cycle; -1 when it is more than radius
+	 */
+	private static int[] distanceToCycle(MatchGraph mg, long[] component, int radius) {
+		int n = mg.getNumVertices();
+		boolean[] member = new boolean[n];
+		for(int i = 0; i < n; i++) {
+			for(int w = 0; w < mg.nWords && ! member[i]; w++)
+				member[i] = (mg.matchMask[i * mg.nWords + w] & component[w]) != 0;
+		} //for
+		boolean[] onCycle = verticesOnCycles(mg, member);
+
+		int[] dist = new int[n];
+		Arrays.fill(dist, -1);
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		for(int i = 0; i < n; i++) {
+			if(onCycle[i]) {
+				dist[i] = 0;
+				queue[tail++] = i;
+			}
+		} //for
+		while(head < tail) {
+			int v = queue[head++];
+			if(dist[v] == radius)
+				continue;
+			for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++) {
+				int c = mg.targets[e];
+				if(dist[c] < 0) {
+					dist[c] = dist[v] + 1;
+					queue[tail++] = c;
+				}
+			} //for
+			for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++) {
+				int p = mg.sources[e];
+				if(dist[p] < 0) {
+					dist[p] = dist[v] + 1;
+					queue[tail++] = p;
+				}
+			} //for
+		} //while
+		return dist;
+	}
+
+	/**
+	 * Finds the vertices of the member subgraph which are on a directed cycle; i.e., the vertices of the 
+	 * strongly connected components with more than one vertex or with a self loop (iterative Tarjan)
+	 */
+	private static boolean[] verticesOnCycles(MatchGraph mg, boolean[] member) {
+		int n = mg.getNumVertices();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		Arrays.fill(index, -1);
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];		// the stack of Tarjan
+		int top = 0;
+		int[] callVertex = new int[n];	// the stack of the depth first search
+		int[] callEdge = new int[n];
+		boolean[] onCycle = new boolean[n];
+		int counter = 0;
+
+		for(int root = 0; root < n; root++) {
+			if(! member[root] || index[root] >= 0)
+				continue;
+			int depth = 0;
+			callVertex[0] = root;
+			callEdge[0] = mg.offsets[root];
+			index[root] = low[root] = counter++;
+			stack[top++] = root;
+			onStack[root] = true;
+			while(depth >= 0) {
+				int v = callVertex[depth];
+				if(callEdge[depth] < mg.offsets[v + 1]) {
+					int c = mg.targets[callEdge[depth]++];
+					if(! member[c])
+						continue;
+					if(c == v) {
+						onCycle[v] = true;	// a self loop
+					} else if(index[c] < 0) {
+						index[c] = low[c] = counter++;
+						stack[top++] = c;
+						onStack[c] = true;
+						depth++;
+						callVertex[depth] = c;
+						callEdge[depth] = mg.offsets[c];
+					} else if(onStack[c]) {
+						low[v] = Math.min(low[v], index[c]);
+					} //if
+					continue;
+				} //if
+				// all the children of v are visited
+				if(low[v] == index[v]) {
+					int size = 0;
+					int bottom = top;
+					do {
+						onStack[stack[--bottom]] = false;
+						size++;
+					} while(stack[bottom] != v);
+					if(size > 1) {
+						for(int i = bottom; i < top; i++)
+							onCycle[stack[i]] = true;
+					} //if
+					top = bottom;
+				} //if
+				depth--;
+				if(depth >= 0)
+					low[callVertex[depth]] = Math.min(low[callVertex[depth]], low[v]);
+			} //while
+		} //for
+		return onCycle;
+	}
+
+	/**
+	 * Returns the counters as a string
+	 */
+	public String toString() {
+		return "centers: " + nCenters + ", cyclic query components: " + nCyclicComponents 
+				+ ", removed by cycle reach: " + nByCycleReach + ", time: " + time + " ms";
+	}
+
+} //class
@@ -19,9 +19,14 @@
 package graph.simulation;
 
 import graph.common.Graph;
+import graph.common.MatchGraph;
+import graph.common.SetKernels;
 import graph.common.SmallGraph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -32,6 +37,11 @@ import java.util.Set;
 
 public class DualSimulation{
 
+	/**
+	 * the number of vertices visited by the refinement between two checks of the budget
+	 */
+	public static int BUDGET_CHECK_INTERVAL = 1024;
+
 	/*****************************************************************
 	 * Runs the sequential dual simulation when the data graph is of type Graph
 	 * @param graph The Data Graph 
@@ -39,6 +49,41 @@ public class DualSimulation{
 	 * @return The Dual simulation map
 	 */
 	public static Map<Integer, Set<Integer>>  getDualSimSet(Graph dataGraph, SmallGraph query) {
+		if(query.isPolytree() == 1) // no fixpoint is needed for a polytree
+			return PolytreeSimulation.getDualSimSet(dataGraph, query);
+		return getDualSimSet(dataGraph, query, QueryPlan.build(dataGraph, query));
+	} // getDualSimSet
+
+	/*****************************************************************
+	 * Runs the sequential dual simulation when the data graph is of type Graph, 
+	 * visiting the query edges in the order of the given plan
+	 * @param graph The Data Graph 
+	 * @param query The Query Graph  
+	 * @param plan  The order of query edges; its cost counters are updated
+	 * @return The Dual simulation map
+	 */
+	public static Map<Integer, Set<Integer>>  getDualSimSet(Graph dataGraph, SmallGraph query, QueryPlan plan) {
+		return getDualSimSet(dataGraph, query, plan, null);
+	} // getDualSimSet
+
+	/*****************************************************************
+	 * Runs the sequential dual simulation when the data graph is of type Graph, within a budget; 
+	 * the refinement checks the budget and stops when it is exhausted
+	 * @param graph The Data Graph 
+	 * @param query The Query Graph  
+	 * @param budget The budget of the query (it must be started)
+	 * @return The Dual simulation map; an empty map when there is no match or the budget is exhausted (then budget.complete is false)
+	 */
+	public static Map<Integer, Set<Integer>>  getDualSimSet(Graph dataGraph, SmallGraph query, QueryBudget budget) {
+		if(query.isPolytree() == 1) // no fixpoint is needed for a polytree
+			return PolytreeSimulation.getDualSimSet(dataGraph, query, budget);
+		return getDualSimSet(dataGraph, query, QueryPlan.build(dataGraph, query), budget);
+	} // getDualSimSet
+
+	/*****************************************************************
+	 * Runs the sequential dual simulation in the order of the plan, checking the budget when it is not null
+	 */
+	private static Map<Integer, Set<Integer>>  getDualSimSet(Graph dataGraph, SmallGraph query, QueryPlan plan, QueryBudget budget) {
 		dataGraph.buildLabelIndex();
 		// matching map from query to dataGraph
 		Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
@@ -46,54 +91,410 @@ public class DualSimulation{
 		// relating the vertices of dataGraph to the vertices of query based on label match
 		for(int u : query.labels.keySet()) {
 			int label = query.labels.get(u);
+			if(dataGraph.getLabelFrequency(label) == 0)
+				return new HashMap<Integer, Set<Integer>>(); // a vertex without any candidate match
 			Set<Integer> phi = new HashSet<Integer>(dataGraph.getVerticesLabeled(label));
 			sim.put(u, phi);			
+			if(budget != null && budget.exhausted())
+				return new HashMap<Integer, Set<Integer>>();
 		} //for
 		
+		if(! refine(dataGraph, sim, plan, budget))
+			return new HashMap<Integer, Set<Integer>>();
+		return sim;
+	} // getDualSimSet
+
+	/*****************************************************************
+	 * Refines a relation in place based on the dualSim condition, visiting the query edges in the order of the plan
+	 * @param dataGraph The Data Graph 
+	 * @param sim   The relation which will be refined
+	 * @param plan  The order of query edges; its cost counters are updated
+	 * @return false when a query vertex loses all of its matches; true otherwise
+	 */
+	private static boolean refine(Graph dataGraph, Map<Integer, Set<Integer>> sim, QueryPlan plan) {
+		return refine(dataGraph, sim, plan, null);
+	} // refine
+
+	/*****************************************************************
+	 * Refines a relation in place like the other refine; the budget is checked once in BUDGET_CHECK_INTERVAL 
+	 * visited vertices, and the refinement stops when it is exhausted
+	 * @param budget The budget of the query; null for no budget
+	 * @return false when a query vertex loses all of its matches or the budget is exhausted; true otherwise
+	 */
+	private static boolean refine(Graph dataGraph, Map<Integer, Set<Integer>> sim, QueryPlan plan, QueryBudget budget) {
 		// sim will be refined based on the dualSim condition
+		int nVisited = 0;
 		boolean alter = true;
 		while (alter) {
             alter = false;
+            plan.nPasses ++;
 
-            // loop over query vertices u and u's children u_c
-            for(int u : query.labels.keySet()) {
-            	if(query.post(u) != null) {
-            		for(int u_c : query.post(u)) {
-            			Set<Integer> newPhi = new HashSet<Integer>();	// subset of phi(u_c) having a parent in phi(u)
-                		Iterator<Integer> it = sim.get(u).iterator();
-            			while(it.hasNext()) {
-            				int v = it.next();							// data vertex v is in phi(u)
-            				Set<Integer> phiTemp = new HashSet<Integer>(dataGraph.post(v));
-            				phiTemp.retainAll(sim.get(u_c));			// children of v contained in phi(u_c)
-            				if(phiTemp.isEmpty()) {
-            					it.remove();
-            					sim.get(u).remove(v);					// remove vertex v from phi(u) 
-            					if(sim.get(u).isEmpty())				// no match for vertex u => no overall match
-            						return new HashMap<Integer, Set<Integer>>();
-            					alter = true;
-            				} //if
-            				// build newPhi to contain only those vertices in phi(u_c) which also have a parent in phi(u)
-            				newPhi.addAll(phiTemp);
-            			} //while
-            			
-            			if (newPhi.size() < sim.get(u_c).size()) alter = true;        // since newPhi is smaller than phi(u_c)           			
-            			sim.put(u_c, newPhi); // newPhi is the refined set of the previous phi(u_c)
+            // loop over query edges (u, u_c) in the planned order
+            for(int e = 0; e < plan.size(); e++) {
+            	int u = plan.parents[e];
+            	int u_c = plan.children[e];
+            	Set<Integer> phi = sim.get(u);
+            	Set<Integer> phi_c = sim.get(u_c);
+            	Set<Integer> newPhi = new HashSet<Integer>();	// subset of phi(u_c) having a parent in phi(u)
+            	Iterator<Integer> it = phi.iterator();
+            	while(it.hasNext()) {
+            		int v = it.next();							// data vertex v is in phi(u)
+            		if(budget != null && ++nVisited % BUDGET_CHECK_INTERVAL == 0 && budget.exhausted())
+            			return false;
+            		int[] children = dataGraph.getChildren(v);
+            		plan.scanned[e] += children.length;
+            		boolean hasChild = false;
+            		for(int v_c : children) {
+            			if(phi_c.contains(v_c)) {				// a child of v contained in phi(u_c)
+            				hasChild = true;
+            				newPhi.add(v_c);					// newPhi contains only those vertices in phi(u_c) which also have a parent in phi(u)
+            			} //if
             		} //for
-            	} //if
+            		if(! hasChild) {
+            			it.remove();							// remove vertex v from phi(u)
+            			plan.removed[e] ++;
+            			if(phi.isEmpty())						// no match for vertex u => no overall match
+            				return false;
+            			alter = true;
+            		} //if
+            	} //while
+
+            	if (newPhi.size() < sim.get(u_c).size()) alter = true;        // since newPhi is smaller than phi(u_c)           			
+            	sim.put(u_c, newPhi); // newPhi is the refined set of the previous phi(u_c)
             } //for
             
         } // while
 		
-		return sim;
-	} // getDualSimSet
+		return true;
+	} // refine
+
+	/*****************************************************************
+	 * Runs the sequential dual simulation when the data graph is of type Graph and an initial relation match is known.
+	 * The relation (e.g., from a cached polytree, an earlier version of the query or a prefilter) must be a superset 
+	 * of the answer; a query vertex missing from the relation is related to all the data vertices with its label.
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @param relation an initial relation match (will be altered and returned)
+	 * @return The refined relation match based on dual simulation; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>>  dualSimSetHelper(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		if(! warmStart(dataGraph, query, relation))
+			return new HashMap<Integer, Set<Integer>>();
+		boolean matched;
+		if(query.isPolytree() == 1)
+			matched = PolytreeSimulation.twoPass(dataGraph, query, relation);
+		else
+			matched = refine(dataGraph, relation, QueryPlan.build(dataGraph, query));
+		if(! matched)
+			return new HashMap<Integer, Set<Integer>>();
+		return relation;
+	} //dualSimSetHelper
+
+	/*****************************************************************
+	 * Runs the sequential new-dual simulation when the data graph is of type Graph and an initial relation match is known
+	 * (see dualSimSetHelper for the conditions on the relation)
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @param relation an initial relation match (will be altered and returned)
+	 * @return The refined relation match based on new-dual simulation; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>>  newDualSimSetHelper(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		if(! warmStart(dataGraph, query, relation))
+			return new HashMap<Integer, Set<Integer>>();
+		boolean isPolytree = (query.isPolytree() == 1);
+		QueryPlan plan = isPolytree ? null : QueryPlan.build(dataGraph, query);
+		boolean alter = true;
+		while(alter) {
+			boolean matched = isPolytree ? PolytreeSimulation.twoPass(dataGraph, query, relation) : refine(dataGraph, relation, plan);
+			if(! matched)
+				return new HashMap<Integer, Set<Integer>>();
+			alter = dualCardinalityFilter(dataGraph, query, relation);
+		} //while
+		for(Set<Integer> phi : relation.values()) {
+			if(phi.isEmpty())
+				return new HashMap<Integer, Set<Integer>>();
+		} //for
+		return relation;
+	} //newDualSimSetHelper
 
 	/*****************************************************************
-	 * Runs the sequential dual simulation when the data graph is of type SmallGraph
+	 * Runs dual simulation of a query which is extended by SmallGraph.connectNewVertex, starting from the relation 
+	 * of the query before the extension. The new edges can only shrink the sets of the old query vertices, so only 
+	 * the new vertex needs candidates: the vertices with its label which are connected to the matches of its neighbors.
+	 * @param dataGraph The Data Graph 
+	 * @param query The extended Query Graph
+	 * @param relation the dual simulation relation of the query before the extension (will be altered and returned)
+	 * @param newVertex the id of the new query vertex
+	 * @return The Dual simulation map of the extended query; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>>  extendDualSimSet(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation, int newVertex) {
+		if(relation.isEmpty())
+			return relation; // no match for the old query => no match for the extended query
+		relation.put(newVertex, newVertexCandidates(dataGraph, query, relation, newVertex));
+		return dualSimSetHelper(dataGraph, query, relation);
+	} //extendDualSimSet
+
+	/*****************************************************************
+	 * Runs new-dual simulation of a query which is extended by SmallGraph.connectNewVertex, starting from the 
+	 * new-dual relation of the query before the extension (see extendDualSimSet)
+	 * @param dataGraph The Data Graph 
+	 * @param query The extended Query Graph
+	 * @param relation the new-dual simulation relation of the query before the extension (will be altered and returned)
+	 * @param newVertex the id of the new query vertex
+	 * @return The new-dual simulation map of the extended query; an empty map when there is no match
+	 */
+	public static Map<Integer, Set<Integer>>  extendNewDualSimSet(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation, int newVertex) {
+		if(relation.isEmpty())
+			return relation; // no match for the old query => no match for the extended query
+		relation.put(newVertex, newVertexCandidates(dataGraph, query, relation, newVertex));
+		return newDualSimSetHelper(dataGraph, query, relation);
+	} //extendNewDualSimSet
+
+	/**
+	 * Finds the candidates of a new query vertex: the data vertices with its label which have a parent (child) 
+	 * in the relation of each of its parents (children) 
+	 * @param dataGraph The Data Graph 
+	 * @param query The extended Query Graph
+	 * @param relation the relation of the old query vertices
+	 * @param newVertex the id of the new query vertex
+	 * @return the set of candidates
+	 */
+	private static Set<Integer> newVertexCandidates(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation, int newVertex) {
+		dataGraph.buildLabelIndex();
+		int label = query.getLabel(newVertex);
+		Set<Integer> candidates = null;
+		for(int u : query.post(newVertex)) {
+			Set<Integer> connected = new HashSet<Integer>();
+			for(int v : relation.get(u)) {
+				for(int v_p : dataGraph.pre(v)) {
+					if(dataGraph.getLabel(v_p) == label && (candidates == null || candidates.contains(v_p)))
+						connected.add(v_p);
+				} //for
+			} //for
+			candidates = connected;
+		} //for
+		for(int u : query.pre(newVertex)) {
+			Set<Integer> connected = new HashSet<Integer>();
+			for(int v : relation.get(u)) {
+				for(int v_c : dataGraph.getChildren(v)) {
+					if(dataGraph.getLabel(v_c) == label && (candidates == null || candidates.contains(v_c)))
+						connected.add(v_c);
+				} //for
+			} //for
+			candidates = connected;
+		} //for
+		if(candidates == null) // an isolated vertex
+			candidates = (dataGraph.getLabelFrequency(label) == 0) ? new HashSet<Integer>() : new HashSet<Integer>(dataGraph.getVerticesLabeled(label));
+		return candidates;
+	} //newVertexCandidates
+
+	/**
+	 * Prepares a caller-supplied relation for refinement: the vertices with a wrong label are removed and 
+	 * the missing query vertices are related to their label buckets
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @param relation the initial relation match (altered in place)
+	 * @return false when a query vertex does not have any candidate match; true otherwise
+	 */
+	private static boolean warmStart(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		dataGraph.buildLabelIndex();
+		for(int u : query.labels.keySet()) {
+			int label = query.getLabel(u);
+			Set<Integer> phi = relation.get(u);
+			if(phi == null) {
+				if(dataGraph.getLabelFrequency(label) == 0)
+					return false;
+				relation.put(u, new HashSet<Integer>(dataGraph.getVerticesLabeled(label)));
+				continue;
+			} //if
+			Iterator<Integer> it = phi.iterator();
+			while(it.hasNext()) {
+				if(dataGraph.getLabel(it.next()) != label)
+					it.remove();
+			} //while
+			if(phi.isEmpty())
+				return false;
+		} //for
+		return true;
+	} //warmStart
+
+	/*****************************************************************
+	 * Runs dual simulation for a batch of queries on the same data graph of type Graph
+	 * @param dataGraph The Data Graph 
+	 * @param queries   The Query Graphs
+	 * @return The Dual simulation maps in the order of the queries
+	 */
+	public static List<Map<Integer, Set<Integer>>> evaluateBatch(Graph dataGraph, List<SmallGraph> queries) {
+		return evaluateBatch(dataGraph, queries, false);
+	} // evaluateBatch
+
+	/*****************************************************************
+	 * Runs dual simulation (or new-dual simulation) for a batch of queries on the same data graph, sharing the work among them.
+	 * The distinct (label, label) edge constraints of all the queries are refined together by a single scan over 
+	 * the adjacency lists, the candidate seeds of the query vertices with the same label and the same constraints 
+	 * are computed once, and then each query is refined from its seeds. The refinement stays per query, since the 
+	 * result of a query vertex depends on the whole query and not only on its own constraints; only the repeated 
+	 * queries (the same vertices, labels and edges) share it, and each of them receives its own copy of the result.
+	 * @param dataGraph The Data Graph 
+	 * @param queries   The Query Graphs
+	 * @param newDual   when it is true the cardinality filter of getNewDualSimSet is applied too
+	 * @return The Dual simulation maps in the order of the queries (an empty map for a query without match)
+	 */
+	public static List<Map<Integer, Set<Integer>>> evaluateBatch(Graph dataGraph, List<SmallGraph> queries, boolean newDual) {
+		dataGraph.buildLabelIndex();
+		int nVertices = dataGraph.getNumVertices();
+
+		// the distinct edge constraints of all the queries, grouped by the label of their source
+		Map<Integer, Map<Integer, EdgeConstraint>> constraints = new HashMap<Integer, Map<Integer, EdgeConstraint>>();
+		int nConstraints = 0;
+		for(SmallGraph query : queries) {
+			for(int u : query.labels.keySet()) {
+				int label = query.getLabel(u);
+				for(int u_c : query.post(u)) {
+					if(constraints.get(label) == null)
+						constraints.put(label, new HashMap<Integer, EdgeConstraint>());
+					if(constraints.get(label).get(query.getLabel(u_c)) == null)
+						constraints.get(label).put(query.getLabel(u_c), new EdgeConstraint(nConstraints++));
+				} //for
+			} //for
+		} //for
+
+		// one scan over the adjacency lists serves all the constraints of all the queries
+		for(int v = 0; v < nVertices; v++) {
+			Map<Integer, EdgeConstraint> bySource = constraints.get(dataGraph.getLabel(v));
+			if(bySource == null) continue;
+			for(int w : dataGraph.getChildren(v)) {
+				EdgeConstraint c = bySource.get(dataGraph.getLabel(w));
+				if(c != null) {
+					c.sources.set(v);
+					c.targets.set(w);
+				} //if
+			} //for
+		} //for
+
+		// the seeds are shared by the query vertices with the same label and the same constraints
+		Map<List<Integer>, Set<Integer>> seeds = new HashMap<List<Integer>, Set<Integer>>();
+		// the refined results are shared by the repeated queries
+		Map<List<Integer>, Map<Integer, Set<Integer>>> refined = new HashMap<List<Integer>, Map<Integer, Set<Integer>>>();
+		List<Map<Integer, Set<Integer>>> results = new ArrayList<Map<Integer, Set<Integer>>>(queries.size());
+		for(SmallGraph query : queries) {
+			List<Integer> queryKey = queryKey(query);
+			Map<Integer, Set<Integer>> done = refined.get(queryKey);
+			if(done != null) {
+				Map<Integer, Set<Integer>> copy = new HashMap<Integer, Set<Integer>>(done.size());
+				for(Map.Entry<Integer, Set<Integer>> entry : done.entrySet())
+					copy.put(entry.getKey(), new HashSet<Integer>(entry.getValue()));
+				results.add(copy);
+				continue;
+			} //if
+
+			Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
+			boolean noMatch = false;
+			for(int u : query.labels.keySet()) {
+				int label = query.getLabel(u);
+				List<EdgeConstraint> asSource = new ArrayList<EdgeConstraint>();
+				List<EdgeConstraint> asTarget = new ArrayList<EdgeConstraint>();
+				List<Integer> key = new ArrayList<Integer>();
+				for(int u_c : query.post(u)) {
+					EdgeConstraint c = constraints.get(label).get(query.getLabel(u_c));
+					asSource.add(c);
+					key.add(c.id + 1);
+				} //for
+				for(int u_p : query.pre(u)) {
+					EdgeConstraint c = constraints.get(query.getLabel(u_p)).get(label);
+					asTarget.add(c);
+					key.add(-(c.id + 1));
+				} //for
+				Collections.sort(key);
+				key.add(label);
+
+				Set<Integer> seed = seeds.get(key);
+				if(seed == null) {
+					seed = new HashSet<Integer>();
+					if(dataGraph.getLabelFrequency(label) != 0) {
+						for(int v : dataGraph.getVerticesLabeled(label)) {
+							if(satisfies(v, asSource, asTarget))
+								seed.add(v);
+						} //for
+					} //if
+					seeds.put(key, seed);
+				} //if
+				if(seed.isEmpty()) {
+					noMatch = true; // a vertex without any candidate match
+					break;
+				} //if
+				sim.put(u, new HashSet<Integer>(seed));
+			} //for
+
+			Map<Integer, Set<Integer>> result = noMatch ? new HashMap<Integer, Set<Integer>>() 
+					: (newDual ? newDualSimSetHelper(dataGraph, query, sim) : dualSimSetHelper(dataGraph, query, sim));
+			results.add(result);
+			Map<Integer, Set<Integer>> copy = new HashMap<Integer, Set<Integer>>(result.size());
+			for(Map.Entry<Integer, Set<Integer>> entry : result.entrySet())
+				copy.put(entry.getKey(), new HashSet<Integer>(entry.getValue()));
+			refined.put(queryKey, copy);
+		} //for
+
+		return results;
+	} // evaluateBatch
+
+	/**
+	 * Makes a key of a query from its vertices, their labels and their children, in the order of the vertex ids
+	 */
+	private static List<Integer> queryKey(SmallGraph query) {
+		List<Integer> ids = new ArrayList<Integer>(query.labels.keySet());
+		Collections.sort(ids);
+		List<Integer> key = new ArrayList<Integer>();
+		for(int u : ids) {
+			key.add(u);
+			key.add(query.getLabel(u));
+			List<Integer> children = new ArrayList<Integer>(query.post(u));
+			Collections.sort(children);
+			key.add(children.size());
+			key.addAll(children);
+		} //for
+		return key;
+	} // queryKey
+
+	/**
+	 * Tests if a data vertex is a source of all the given constraints and a target of all the others
+	 */
+	private static boolean satisfies(int v, List<EdgeConstraint> asSource, List<EdgeConstraint> asTarget) {
+		for(EdgeConstraint c : asSource) {
+			if(! c.sources.get(v))
+				return false;
+		} //for
+		for(EdgeConstraint c : asTarget) {
+			if(! c.targets.get(v))
+				return false;
+		} //for
+		return true;
+	} // satisfies
+
+	/**
+	 * A (label, label) edge constraint shared by the queries of a batch: the data vertices which have a child
+	 * with the second label (sources) and the data vertices which have a parent with the first label (targets)
+	 */
+	private static class EdgeConstraint {
+		final int id;
+		final BitSet sources = new BitSet();
+		final BitSet targets = new BitSet();
+
+		EdgeConstraint(int id) {
+			this.id = id;
+		}
+	} // EdgeConstraint
+
+	/*****************************************************************
+	 * Runs the sequential dual simulation when the data graph is of type SmallGraph; 
+	 * a graph up to BitDualSimulation.MAX_VERTICES vertices is simulated with bit matrices
 	 * @param graph The Data Graph 
 	 * @param query The Query Graph  
 	 * @return The Dual simulation map
 	 */
 	public static Map<Integer, Set<Integer>>  getDualSimSet(SmallGraph dataGraph, SmallGraph query) {
+		if(dataGraph.getNumVertices() <= BitDualSimulation.MAX_VERTICES) // a ball, a query or a polytree
+			return BitDualSimulation.getDualSimSet(dataGraph, query);
 		dataGraph.buildLabelIndex();
 		// matching map from query to dataGraph
 		Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
@@ -121,6 +522,8 @@ public class DualSimulation{
 	 * @return The refined relation match based on dual simulation
 	 */
 	public static Map<Integer, Set<Integer>>  dualSimSetHelper(SmallGraph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		if(dataGraph.getNumVertices() <= BitDualSimulation.MAX_VERTICES) // a ball, a query or a polytree
+			return BitDualSimulation.dualSimSetHelper(dataGraph, query, relation);
 		// relation will be refined based on the dualSim condition
 		boolean alter = true;
 		while (alter) {
@@ -168,6 +571,20 @@ public class DualSimulation{
 		}
 		return theNodes;
 	} // nodesInSimSet
+
+	/**
+	 * Finds all the vertices of the data graph which are in the simulation set, as a bitmap
+	 * @param simSet the simulation set
+	 * @return the bitmap of the vertex ids
+	 */
+	public static BitSet nodesInSimBits(Map<Integer, Set<Integer>> simSet) {
+		BitSet theNodes = new BitSet();
+		for(Set<Integer> matches : simSet.values()) {
+			for(int v : matches)
+				theNodes.set(v);
+		}
+		return theNodes;
+	} // nodesInSimBits
 	
 	/**
 	 * Finds the result match graph of dual simulation when the data graph is of type Graph
@@ -177,31 +594,8 @@ public class DualSimulation{
 	 * @return result match graph
 	 */
 	public static SmallGraph getResultMatchGraph(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet) {
-
-		SmallGraph resultMatch = new SmallGraph();
-		resultMatch.vertices = new HashMap<Integer, Set<Integer>>();
-		resultMatch.labels = new HashMap<Integer, Integer>();    	
-		if(dualSimSet.isEmpty()) return resultMatch;
-
-		for(int u : query.labels.keySet()) {
-			for(int v : dualSimSet.get(u)) {
-				if(resultMatch.labels.get(v) == null)
-					resultMatch.labels.put(v, query.labels.get(u));
-			} // for
-		} // for
-		
-		// only those edges of the data graph which are involved in the sim set should be added to the result match graph
-		for(int u : query.labels.keySet()) {
-			for(int uc : query.post(u)) {
-				for(int v : dualSimSet.get(u)) {
-					Set<Integer> newAdjSet = new HashSet<Integer>(dataGraph.post(v));
-					newAdjSet.retainAll(dualSimSet.get(uc));
-					resultMatch.post(v).addAll(newAdjSet);
-				} // for
-			} // if
-		} // for
-		
-		return resultMatch;
+		// the compact match graph scans every data vertex once, in parallel, and it carries the reverse index
+		return MatchGraph.build(dataGraph, query, dualSimSet).toSmallGraph();
 	} // getDualSimMatchGraph
 	
 	/**
@@ -246,6 +640,8 @@ public class DualSimulation{
 	 * @return The Dual simulation map
 	 */
 	public static Map<Integer, Set<Integer>>  getNewDualSimSet(Graph dataGraph, SmallGraph query) {
+		if(query.isPolytree() == 1) // no fixpoint is needed for a polytree
+			return PolytreeSimulation.getNewDualSimSet(dataGraph, query);
 		dataGraph.buildLabelIndex();
 		// matching map from query to dataGraph
 		Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
@@ -296,65 +692,56 @@ public class DualSimulation{
 		return sim;
 	} // getDualSimSet
 
+	/**
+	 * Removes the vertices of the relation which cannot have enough matching children or parents;
+	 * i.e., the multiset of labels of the children (parents) of u must be covered by the labels of 
+	 * the distinct children (parents) of v which are matches to the children (parents) of u.
+	 * @param dataGraph The Data Graph
+	 * @param query The Query Graph
+	 * @param sim the relation which will be refined in place
+	 * @return true when the relation is altered
+	 */
 	public static boolean dualCardinalityFilter(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> sim) {
 		dataGraph.buildParentIndex();
 		query.buildParentIndex();		
-		List<Integer> labelCounter = new ArrayList<Integer>();
+		Map<Integer, Integer> labelIds = queryLabelIds(query);
+		int[] have = new int[labelIds.size()];
 		boolean alter = false;
 		
 		for(int u : query.labels.keySet()) { // iterating over the vertices in the query
+			Set<Integer> u_children = query.post(u);
+			Set<Integer> u_parents = query.pre(u);
+			int[] needChildren = labelHistogram(query, u_children, labelIds);
+			int[] needParents = labelHistogram(query, u_parents, labelIds);
 			Iterator<Integer> it = sim.get(u).iterator();
 			while(it.hasNext()) {
 				int v = it.next(); // v is a simulation match to u
-				Set<Integer> u_children = query.post(u);
-				Set<Integer> v_children = dataGraph.post(v);
-				if(v_children.size() < u_children.size()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;					
+				// check labels in the childhood (the children in an adjacency row are distinct)
+				int[] v_children = dataGraph.getChildren(v);
+				boolean valid = v_children.length >= u_children.size();
+				if(valid) {
+					Arrays.fill(have, 0);
+					for(int v_c : v_children) {
+						if(matchesAny(v_c, u_children, sim))
+							have[labelIds.get(dataGraph.getLabel(v_c))] ++;
+					} //for
+					valid = SetKernels.covers(have, needChildren);
 				} //if
-				// check labels in the childhood
-				labelCounter.clear();
-				Set<Integer> v_nei = new HashSet<Integer>(); // children of v which are match to children to u
-				for(int u_c : u_children) {
-					labelCounter.add(query.getLabel(u_c));
-					Set<Integer> tempSet = new HashSet<Integer>(v_children);
-					tempSet.retainAll(sim.get(u_c));
-					v_nei.addAll(tempSet);
-				}
-				for(int v_c : v_nei) {
-					labelCounter.remove(new Integer(dataGraph.getLabel(v_c)));
-				}
-				if(! labelCounter.isEmpty()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;
-				}
 				// check labels in parents
-				Set<Integer> u_parents = query.pre(u);
-				Set<Integer> v_parents = dataGraph.pre(v);
-				if(v_parents.size() < u_parents.size()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;					
+				if(valid) {
+					Set<Integer> v_parents = dataGraph.pre(v);
+					valid = v_parents.size() >= u_parents.size();
+					if(valid) {
+						Arrays.fill(have, 0);
+						for(int v_p : v_parents) {
+							if(matchesAny(v_p, u_parents, sim))
+								have[labelIds.get(dataGraph.getLabel(v_p))] ++;
+						} //for
+						valid = SetKernels.covers(have, needParents);
+					} //if
 				} //if
-				v_nei.clear();
-				labelCounter.clear();
-				for(int u_p : u_parents) {
-					labelCounter.add(query.getLabel(u_p));
-					Set<Integer> tempSet = new HashSet<Integer>(v_parents);
-					tempSet.retainAll(sim.get(u_p));
-					v_nei.addAll(tempSet);
-				} //for
-				for(int v_p : v_nei) {
-					labelCounter.remove(new Integer(dataGraph.getLabel(v_p)));
-				}
-				if(! labelCounter.isEmpty()) {
+				if(! valid) {
 					it.remove();
-					sim.get(u).remove(v);
 					alter = true;
 				} //if
 			} //while
@@ -370,6 +757,8 @@ public class DualSimulation{
 	 * @return The Dual simulation map
 	 */
 	public static Map<Integer, Set<Integer>>  getNewDualSimSet(SmallGraph dataGraph, SmallGraph query) {
+		if(dataGraph.getNumVertices() <= BitDualSimulation.MAX_VERTICES) // a ball, a query or a polytree
+			return BitDualSimulation.getNewDualSimSet(dataGraph, query);
 		dataGraph.buildLabelIndex();
 		// matching map from query to dataGraph
 		Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
@@ -397,6 +786,8 @@ public class DualSimulation{
 	 * @return The refined relation match based on dual simulation
 	 */
 	public static Map<Integer, Set<Integer>>  newDualSimSetHelper(SmallGraph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> relation) {
+		if(dataGraph.getNumVertices() <= BitDualSimulation.MAX_VERTICES) // a ball, a query or a polytree
+			return BitDualSimulation.newDualSimSetHelper(dataGraph, query, relation);
 		// relation will be refined based on the dualSim condition
 //		dualCardinalityFilter(dataGraph, query, relation);
 		boolean alter = true;
@@ -437,65 +828,55 @@ public class DualSimulation{
 		return relation;
 	} //dualSimSetHelper
 
+	/**
+	 * Removes the vertices of the relation which cannot have enough matching children or parents
+	 * (see the Graph version of this method)
+	 * @param dataGraph The Data Graph
+	 * @param query The Query Graph
+	 * @param sim the relation which will be refined in place
+	 * @return true when the relation is altered
+	 */
 	public static boolean dualCardinalityFilter(SmallGraph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> sim) {
 		dataGraph.buildParentIndex();
 		query.buildParentIndex();		
-		List<Integer> labelCounter = new ArrayList<Integer>();
+		Map<Integer, Integer> labelIds = queryLabelIds(query);
+		int[] have = new int[labelIds.size()];
 		boolean alter = false;
 		
 		for(int u : query.labels.keySet()) { // iterating over the vertices in the query
+			Set<Integer> u_children = query.post(u);
+			Set<Integer> u_parents = query.pre(u);
+			int[] needChildren = labelHistogram(query, u_children, labelIds);
+			int[] needParents = labelHistogram(query, u_parents, labelIds);
 			Iterator<Integer> it = sim.get(u).iterator();
 			while(it.hasNext()) {
 				int v = it.next(); // v is a simulation match to u
-				Set<Integer> u_children = query.post(u);
+				// check labels in the childhood
 				Set<Integer> v_children = dataGraph.post(v);
-				if(v_children.size() < u_children.size()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;					
+				boolean valid = v_children.size() >= u_children.size();
+				if(valid) {
+					Arrays.fill(have, 0);
+					for(int v_c : v_children) {
+						if(matchesAny(v_c, u_children, sim))
+							have[labelIds.get(dataGraph.getLabel(v_c))] ++;
+					} //for
+					valid = SetKernels.covers(have, needChildren);
 				} //if
-				// check labels in the childhood
-				labelCounter.clear();
-				Set<Integer> v_nei = new HashSet<Integer>(); // children of v which are match to children to u
-				for(int u_c : u_children) {
-					labelCounter.add(query.getLabel(u_c));
-					Set<Integer> tempSet = new HashSet<Integer>(v_children);
-					tempSet.retainAll(sim.get(u_c));
-					v_nei.addAll(tempSet);
-				}
-				for(int v_c : v_nei) {
-					labelCounter.remove(new Integer(dataGraph.getLabel(v_c)));
-				}
-				if(! labelCounter.isEmpty()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;
-				}
 				// check labels in parents
-				Set<Integer> u_parents = query.pre(u);
-				Set<Integer> v_parents = dataGraph.pre(v);
-				if(v_parents.size() < u_parents.size()) {
-					it.remove();
-					sim.get(u).remove(v);
-					alter = true;
-					continue;					
+				if(valid) {
+					Set<Integer> v_parents = dataGraph.pre(v);
+					valid = v_parents.size() >= u_parents.size();
+					if(valid) {
+						Arrays.fill(have, 0);
+						for(int v_p : v_parents) {
+							if(matchesAny(v_p, u_parents, sim))
+								have[labelIds.get(dataGraph.getLabel(v_p))] ++;
+						} //for
+						valid = SetKernels.covers(have, needParents);
+					} //if
 				} //if
-				v_nei.clear();
-				labelCounter.clear();
-				for(int u_p : u_parents) {
-					labelCounter.add(query.getLabel(u_p));
-					Set<Integer> tempSet = new HashSet<Integer>(v_parents);
-					tempSet.retainAll(sim.get(u_p));
-					v_nei.addAll(tempSet);
-				} //for
-				for(int v_p : v_nei) {
-					labelCounter.remove(new Integer(dataGraph.getLabel(v_p)));
-				}
-				if(! labelCounter.isEmpty()) {
+				if(! valid) {
 					it.remove();
-					sim.get(u).remove(v);
 					alter = true;
 				} //if
 			} //while
@@ -503,6 +884,42 @@ public class DualSimulation{
 		
 		return alter;
 	} //dualCardinalityFilter
+
+	/**
+	 * Assigns a dense id to each label of the query
+	 * @param query the query graph
+	 * @return the map from the labels of the query to 0..nLabels-1
+	 */
+	private static Map<Integer, Integer> queryLabelIds(SmallGraph query) {
+		Map<Integer, Integer> labelIds = new HashMap<Integer, Integer>();
+		for(int label : query.labels.values()) {
+			if(! labelIds.containsKey(label))
+				labelIds.put(label, labelIds.size());
+		} //for
+		return labelIds;
+	} //queryLabelIds
+
+	/**
+	 * Counts the labels of a set of query vertices
+	 * @return the histogram of the labels indexed by their dense ids
+	 */
+	private static int[] labelHistogram(SmallGraph query, Set<Integer> uSet, Map<Integer, Integer> labelIds) {
+		int[] histogram = new int[labelIds.size()];
+		for(int u : uSet)
+			histogram[labelIds.get(query.getLabel(u))] ++;
+		return histogram;
+	} //labelHistogram
+
+	/**
+	 * Tests if the data vertex v is a match to at least one of the query vertices in uSet
+	 */
+	private static boolean matchesAny(int v, Set<Integer> uSet, Map<Integer, Set<Integer>> sim) {
+		for(int u : uSet) {
+			if(sim.get(u).contains(v))
+				return true;
+		} //for
+		return false;
+	} //matchesAny
 	
 	public static void main(String[] args) throws Exception {
 		Graph g = new Graph("exampleGraphs/G2.txt");
@@ -0,0 +1,313 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the dual simulation relation of a query up to date while the data graph changes.
+ * The changes are applied to the Graph (addEdge, removeEdge, addVertex, removeVertex) and then reported to 
+ * the relation. A deletion only propagates removals from the vertices which lost a witness. An insertion 
+ * computes the affected area, i.e. the unmatched pairs connected to the new edge through the query edges, 
+ * relates them optimistically and removes the invalid ones again. So the cost of an update depends on the 
+ * affected area rather than on the size of the graph.
+ * @author Arash Fard
+ */
+public class IncrementalDualSimulation {
+	private Graph dataGraph = null;
+	private SmallGraph query = null;
+	private Map<Integer, Set<Integer>> relation = null;	// the greatest dual simulation relation, including its empty sets
+
+	public long nAffected = 0;							// the number of pairs checked by the last update
+
+	/**
+	 * Constructor; runs dual simulation of the query on the data graph
+	 * @param dataGraph The Data Graph
+	 * @param query The Query Graph
+	 */
+	public IncrementalDualSimulation(Graph dataGraph, SmallGraph query) {
+		this(dataGraph, query, DualSimulation.getDualSimSet(dataGraph, query));
+	}
+
+	/**
+	 * Constructor for a saved result of DualSimulation.getDualSimSet
+	 * @param dataGraph The Data Graph
+	 * @param query The Query Graph
+	 * @param dualSim the dual simulation relation of the query on the current data graph (it will be maintained in place)
+	 */
+	public IncrementalDualSimulation(Graph dataGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSim) {
+		this.dataGraph = dataGraph;
+		this.query = query;
+		query.buildParentIndex();
+		dataGraph.buildLabelIndex();
+		this.relation = dualSim;
+		if(relation.isEmpty()) {
+			// "no match" hides the greatest relation, which is needed to find the candidates of later insertions
+			Deque<int[]> work = new ArrayDeque<int[]>();
+			for(int u : query.labels.keySet()) {
+				Set<Integer> phi = new HashSet<Integer>();
+				if(dataGraph.getLabelFrequency(query.getLabel(u)) != 0)
+					phi.addAll(dataGraph.getVerticesLabeled(query.getLabel(u)));
+				relation.put(u, phi);
+				for(int v : phi)
+					work.add(new int[] {u, v});
+			} //for
+			removeInvalid(work, null);
+		} //if
+	}
+
+	/**
+	 * Returns the maintained relation with the convention of DualSimulation.getDualSimSet
+	 * @return the relation (it must not be modified); an empty map when there is no match
+	 */
+	public Map<Integer, Set<Integer>> getRelation() {
+		for(Set<Integer> phi : relation.values()) {
+			if(phi.isEmpty())
+				return new HashMap<Integer, Set<Integer>>();
+		} //for
+		return relation;
+	}
+
+	/**
+	 * Updates the relation after the edge (from, to) is added to the data graph
+	 * @param from the source of the new edge
+	 * @param to the target of the new edge
+	 * @return true if the relation has changed
+	 */
+	public boolean edgeInserted(int from, int to) {
+		nAffected = 0;
+		Map<Integer, Set<Integer>> candidates = new HashMap<Integer, Set<Integer>>();
+		Deque<int[]> frontier = new ArrayDeque<int[]>();
+		for(int u : query.labels.keySet()) {
+			if(query.getLabel(u) != dataGraph.getLabel(from)) continue;
+			for(int u_c : query.post(u)) {
+				if(query.getLabel(u_c) != dataGraph.getLabel(to)) continue;
+				addCandidate(u, from, candidates, frontier);
+				addCandidate(u_c, to, candidates, frontier);
+			} //for
+		} //for
+		return addCandidates(candidates, frontier);
+	}
+
+	/**
+	 * Updates the relation after the edge (from, to) is removed from the data graph
+	 * @param from the source of the removed edge
+	 * @param to the target of the removed edge
+	 * @return true if the relation has changed
+	 */
+	public boolean edgeDeleted(int from, int to) {
+		nAffected = 0;
+		Deque<int[]> work = new ArrayDeque<int[]>();
+		for(int u : query.labels.keySet()) {
+			if(! relation.get(u).contains(from)) continue;
+			for(int u_c : query.post(u)) {
+				if(relation.get(u_c).contains(to)) {	// the edge was a witness of both of its ends
+					work.add(new int[] {u, from});
+					work.add(new int[] {u_c, to});
+				} //if
+			} //for
+		} //for
+		return removeInvalid(work, null) > 0;
+	}
+
+	/**
+	 * Updates the relation after a vertex without any edge is added to the data graph
+	 * @param id the id of the new vertex
+	 * @return true if the relation has changed
+	 */
+	public boolean vertexInserted(int id) {
+		nAffected = 0;
+		Map<Integer, Set<Integer>> candidates = new HashMap<Integer, Set<Integer>>();
+		Deque<int[]> frontier = new ArrayDeque<int[]>();
+		for(int u : query.labels.keySet()) {
+			if(query.getLabel(u) == dataGraph.getLabel(id))
+				addCandidate(u, id, candidates, frontier);
+		} //for
+		return addCandidates(candidates, frontier);
+	}
+
+	/**
+	 * Updates the relation after a vertex is removed from the data graph; 
+	 * the removal of its edges must have been reported before (see deleteVertex)
+	 * @param id the id of the removed vertex
+	 * @return true if the relation has changed
+	 */
+	public boolean vertexDeleted(int id) {
+		nAffected = 0;
+		boolean changed = false;
+		for(Set<Integer> phi : relation.values())
+			changed |= phi.remove(id);
+		return changed;
+	}
+
+	/**
+	 * Removes a vertex and its edges from a data graph and updates all the relations maintained on it
+	 * @param dataGraph The Data Graph
+	 * @param results the relations maintained on the data graph
+	 * @param id the id of the vertex
+	 */
+	public static void deleteVertex(Graph dataGraph, Collection<IncrementalDualSimulation> results, int id) {
+		for(int child : dataGraph.getChildren(id).clone()) {
+			dataGraph.removeEdge(id, child);
+			for(IncrementalDualSimulation result : results)
+				result.edgeDeleted(id, child);
+		} //for
+		for(int par : dataGraph.pre(id).toArray(new Integer[0])) {
+			dataGraph.removeEdge(par, id);
+			for(IncrementalDualSimulation result : results)
+				result.edgeDeleted(par, id);
+		} //for
+		dataGraph.removeVertex(id);
+		for(IncrementalDualSimulation result : results)
+			result.vertexDeleted(id);
+	}
+
+	/**
+	 * Adds a pair to the candidates if it is not already related or a candidate
+	 */
+	private void addCandidate(int u, int v, Map<Integer, Set<Integer>> candidates, Deque<int[]> frontier) {
+		if(relation.get(u).contains(v))
+			return;
+		if(candidates.get(u) == null)
+			candidates.put(u, new HashSet<Integer>());
+		if(candidates.get(u).add(v))
+			frontier.add(new int[] {u, v});
+	}
+
+	/**
+	 * Expands the seed candidates to the whole affected area, relates them and removes the invalid ones again.
+	 * A pair which becomes valid by an insertion depends on the new edge through a chain of unmatched pairs, 
+	 * so the pairs outside of the affected area cannot change.
+	 * @param candidates the seed candidates (expanded in place)
+	 * @param frontier the seed pairs
+	 * @return true if the relation has changed
+	 */
+	private boolean addCandidates(Map<Integer, Set<Integer>> candidates, Deque<int[]> frontier) {
+		if(frontier.isEmpty())
+			return false;
+		Deque<int[]> work = new ArrayDeque<int[]>();
+		while(! frontier.isEmpty()) {
+			int[] pair = frontier.poll();
+			work.add(pair);
+			int u = pair[0], v = pair[1];
+			for(int u_c : query.post(u)) {
+				for(int child : dataGraph.getChildren(v)) {
+					if(dataGraph.getLabel(child) == query.getLabel(u_c))
+						addCandidate(u_c, child, candidates, frontier);
+				} //for
+			} //for
+			for(int u_p : query.pre(u)) {
+				for(int par : dataGraph.pre(v)) {
+					if(dataGraph.getLabel(par) == query.getLabel(u_p))
+						addCandidate(u_p, par, candidates, frontier);
+				} //for
+			} //for
+		} //while
+
+		int nAdded = work.size();
+		for(int u : candidates.keySet())
+			relation.get(u).addAll(candidates.get(u));
+		// the old pairs remain valid, so only the candidates are checked again
+		return removeInvalid(work, candidates) < nAdded;
+	}
+
+	/**
+	 * Removes the invalid pairs of the work list and propagates the removals
+	 * @param work the pairs which may have lost a witness
+	 * @param scope the pairs which may be affected by a removal; null for all the related pairs
+	 * @return the number of removed pairs
+	 */
+	private int removeInvalid(Deque<int[]> work, Map<Integer, Set<Integer>> scope) {
+		int nRemoved = 0;
+		while(! work.isEmpty()) {
+			int[] pair = work.poll();
+			nAffected ++;
+			int u = pair[0], v = pair[1];
+			if(! relation.get(u).contains(v) || isValid(u, v))
+				continue;
+			relation.get(u).remove(v);
+			nRemoved ++;
+			pushNeighbors(u, v, scope, work);
+		} //while
+		return nRemoved;
+	}
+
+	/**
+	 * Adds the related pairs which may have used (u, v) as a witness to the work list
+	 */
+	private void pushNeighbors(int u, int v, Map<Integer, Set<Integer>> scope, Deque<int[]> work) {
+		for(int u_c : query.post(u)) {
+			Set<Integer> phi_c = (scope == null) ? relation.get(u_c) : scope.get(u_c);
+			if(phi_c == null) continue;
+			for(int child : dataGraph.getChildren(v)) {
+				if(phi_c.contains(child) && relation.get(u_c).contains(child))
+					work.add(new int[] {u_c, child});
+			} //for
+		} //for
+		for(int u_p : query.pre(u)) {
+			Set<Integer> phi_p = (scope == null) ? relation.get(u_p) : scope.get(u_p);
+			if(phi_p == null) continue;
+			for(int par : dataGraph.pre(v)) {
+				if(phi_p.contains(par) && relation.get(u_p).contains(par))
+					work.add(new int[] {u_p, par});
+			} //for
+		} //for
+	}
+
+	/**
+	 * Checks the dual simulation condition of a related pair: v must have a related child 
+	 * for every child of u and a related parent for every parent of u
+	 */
+	private boolean isValid(int u, int v) {
+		for(int u_c : query.post(u)) {
+			Set<Integer> phi_c = relation.get(u_c);
+			boolean found = false;
+			for(int child : dataGraph.getChildren(v)) {
+				if(phi_c.contains(child)) {
+					found = true;
+					break;
+				} //if
+			} //for
+			if(! found)
+				return false;
+		} //for
+		for(int u_p : query.pre(u)) {
+			Set<Integer> phi_p = relation.get(u_p);
+			boolean found = false;
+			for(int par : dataGraph.pre(v)) {
+				if(phi_p.contains(par)) {
+					found = true;
+					break;
+				} //if
+			} //for
+			if(! found)
+				return false;
+		} //for
+		return true;
+	}
+
+} //class
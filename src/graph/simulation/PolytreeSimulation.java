@@ -0,0 +1,224 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Dual simulation specialized for polytree queries (e.g., the polytrees made by GraphUtils.getPolytree).
+ * The underlying undirected graph of a polytree is a tree, so the relation is found by a bottom-up pass
+ * followed by a top-down pass along the tree, without the global fixpoint loop of DualSimulation.
+ * @author Arash Fard
+ */
+public class PolytreeSimulation {
+
+	/*****************************************************************
+	 * Runs dual simulation of a polytree query when the data graph is of type Graph
+	 * @param dataGraph The Data Graph 
+	 * @param polytree  The Query Graph which must be a polytree (isPolytree() == 1)
+	 * @return The Dual simulation map; the same as DualSimulation.getDualSimSet
+	 */
+	public static Map<Integer, Set<Integer>> getDualSimSet(Graph dataGraph, SmallGraph polytree) {
+		return getDualSimSet(dataGraph, polytree, null);
+	} //getDualSimSet
+
+	/*****************************************************************
+	 * Runs dual simulation of a polytree query within a budget; the budget is checked after each edge of the passes
+	 * @param dataGraph The Data Graph 
+	 * @param polytree  The Query Graph which must be a polytree (isPolytree() == 1)
+	 * @param budget The budget of the query (it must be started); null for no budget
+	 * @return The Dual simulation map; an empty map when there is no match or the budget is exhausted
+	 */
+	public static Map<Integer, Set<Integer>> getDualSimSet(Graph dataGraph, SmallGraph polytree, QueryBudget budget) {
+		Map<Integer, Set<Integer>> sim = initialRelation(dataGraph, polytree);
+		if(sim.isEmpty() || ! twoPass(dataGraph, polytree, sim, budget))
+			return new HashMap<Integer, Set<Integer>>();
+		return sim;
+	} //getDualSimSet
+
+	/*****************************************************************
+	 * Runs new-dual simulation (dual simulation plus the cardinality filter) of a polytree query 
+	 * when the data graph is of type Graph. The two passes are repeated only when the cardinality filter 
+	 * removes a vertex from the relation.
+	 * @param dataGraph The Data Graph 
+	 * @param polytree  The Query Graph which must be a polytree (isPolytree() == 1)
+	 * @return The Dual simulation map; the same as DualSimulation.getNewDualSimSet
+	 */
+	public static Map<Integer, Set<Integer>> getNewDualSimSet(Graph dataGraph, SmallGraph polytree) {
+		Map<Integer, Set<Integer>> sim = initialRelation(dataGraph, polytree);
+		if(sim.isEmpty())
+			return sim;
+		boolean alter = true;
+		while(alter) {
+			if(! twoPass(dataGraph, polytree, sim))
+				return new HashMap<Integer, Set<Integer>>();
+			alter = DualSimulation.dualCardinalityFilter(dataGraph, polytree, sim);
+		} //while
+		for(Set<Integer> phi : sim.values()) {
+			if(phi.isEmpty())
+				return new HashMap<Integer, Set<Integer>>();
+		} //for
+		return sim;
+	} //getNewDualSimSet
+
+	/**
+	 * Relates the vertices of the query to the vertices of the data graph based on label match
+	 * @param dataGraph The Data Graph 
+	 * @param query The Query Graph
+	 * @return the initial relation; an empty map when a query vertex does not have any candidate
+	 */
+	private static Map<Integer, Set<Integer>> initialRelation(Graph dataGraph, SmallGraph query) {
+		dataGraph.buildLabelIndex();
+		Map<Integer, Set<Integer>> sim = new HashMap<Integer, Set<Integer>>(query.getNumVertices());
+		for(int u : query.labels.keySet()) {
+			int label = query.labels.get(u);
+			if(dataGraph.getLabelFrequency(label) == 0)
+				return new HashMap<Integer, Set<Integer>>(); // a vertex without any candidate match
+			sim.put(u, new HashSet<Integer>(dataGraph.getVerticesLabeled(label)));
+		} //for
+		return sim;
+	} //initialRelation
+
+	/**
+	 * Refines the relation with a bottom-up and a top-down pass over the polytree
+	 * @param dataGraph The Data Graph 
+	 * @param polytree  The polytree query
+	 * @param sim the relation which will be refined in place
+	 * @return false when a vertex of the polytree loses all of its matches; true otherwise
+	 */
+	static boolean twoPass(Graph dataGraph, SmallGraph polytree, Map<Integer, Set<Integer>> sim) {
+		return twoPass(dataGraph, polytree, sim, null);
+	} //twoPass
+
+	/**
+	 * Refines the relation with a bottom-up and a top-down pass over the polytree, checking the budget after each edge
+	 * @param budget the budget of the query; null for no budget
+	 * @return false when a vertex of the polytree loses all of its matches or the budget is exhausted; true otherwise
+	 */
+	static boolean twoPass(Graph dataGraph, SmallGraph polytree, Map<Integer, Set<Integer>> sim, QueryBudget budget) {
+		int nVertices = polytree.getNumVertices();
+		int[] order = new int[nVertices];			// the vertices of the polytree in BFS order
+		Map<Integer, Integer> treeParent = new HashMap<Integer, Integer>(nVertices);
+		Map<Integer, Boolean> forward = new HashMap<Integer, Boolean>(nVertices); // true when the edge is treeParent -> vertex
+
+		// the most selective vertex is the root of the tree
+		int root = 0;
+		int minSize = Integer.MAX_VALUE;
+		for(int u : sim.keySet()) {
+			if(sim.get(u).size() < minSize) {
+				minSize = sim.get(u).size();
+				root = u;
+			}
+		} //for
+
+		// ***** BFS traversal on the underlying undirected tree ********
+		Queue<Integer> qu = new LinkedList<Integer>();
+		qu.add(root);
+		treeParent.put(root, root);
+		int n = 0;
+		while(! qu.isEmpty()) {
+			int u = qu.poll();
+			order[n++] = u;
+			for(int c : polytree.post(u)) {
+				if(! treeParent.containsKey(c)) {
+					treeParent.put(c, u);
+					forward.put(c, true);
+					qu.add(c);
+				} //if
+			} //for
+			for(int p : polytree.pre(u)) {
+				if(! treeParent.containsKey(p)) {
+					treeParent.put(p, u);
+					forward.put(p, false);
+					qu.add(p);
+				} //if
+			} //for
+		} //while
+
+		// bottom-up: every match of a vertex must have a match of each tree-child in its neighborhood
+		for(int i = n - 1; i > 0; i--) {
+			int w = order[i];
+			int p = treeParent.get(w);
+			if(forward.get(w))
+				retainWithChild(dataGraph, sim.get(p), sim.get(w));		// edge p -> w
+			else
+				sim.get(p).retainAll(childrenOf(dataGraph, sim.get(w)));	// edge w -> p
+			if(sim.get(p).isEmpty() || (budget != null && budget.exhausted()))
+				return false;
+		} //for
+
+		// top-down: every match of a vertex must have a match of its tree-parent in its neighborhood
+		for(int i = 1; i < n; i++) {
+			int w = order[i];
+			int p = treeParent.get(w);
+			if(forward.get(w))
+				sim.get(w).retainAll(childrenOf(dataGraph, sim.get(p)));	// edge p -> w
+			else
+				retainWithChild(dataGraph, sim.get(w), sim.get(p));		// edge w -> p
+			if(sim.get(w).isEmpty() || (budget != null && budget.exhausted()))
+				return false;
+		} //for
+		return true;
+	} //twoPass
+
+	/**
+	 * Keeps only the vertices of phi which have at least one child in phi_c
+	 * @param dataGraph The Data Graph
+	 * @param phi the set which will be refined
+	 * @param phi_c the set of acceptable children
+	 */
+	private static void retainWithChild(Graph dataGraph, Set<Integer> phi, Set<Integer> phi_c) {
+		Iterator<Integer> it = phi.iterator();
+		while(it.hasNext()) {
+			boolean hasChild = false;
+			for(int v_c : dataGraph.getChildren(it.next())) {
+				if(phi_c.contains(v_c)) {
+					hasChild = true;
+					break;
+				} //if
+			} //for
+			if(! hasChild)
+				it.remove();
+		} //while
+	} //retainWithChild
+
+	/**
+	 * Returns all the children of a set of vertices
+	 * @param dataGraph The Data Graph
+	 * @param phi the set of vertices
+	 * @return the union of the children of the vertices in phi
+	 */
+	private static Set<Integer> childrenOf(Graph dataGraph, Set<Integer> phi) {
+		Set<Integer> children = new HashSet<Integer>();
+		for(int v : phi) {
+			for(int v_c : dataGraph.getChildren(v))
+				children.add(v_c);
+		} //for
+		return children;
+	} //childrenOf
+
+} //class
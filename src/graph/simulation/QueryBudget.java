@@ -0,0 +1,156 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The budget of one query: a deadline, an upper bound for the number of ball vertices built, 
+ * an upper bound for the growth of the used heap, and an upper bound for the number of balls.
+ * The refinement of dual simulation and the workers of the ball stage check it cooperatively; when a bound 
+ * is reached the query stops, complete becomes false, and the results found until then are returned.
+ * A bound of 0 means no bound. A budget is used by one query at a time; start() resets it.
+ * @author Arash Fard
+ */
+public class QueryBudget {
+	public long timeLimit = 0;			// the maximum running time in ms
+	public long maxBallVertices = 0;	// the maximum total number of vertices in the built balls
+	public long maxHeapBytes = 0;		// the maximum growth of the used heap in bytes
+	public long maxBalls = 0;			// the maximum number of built balls
+
+	public volatile boolean complete = true;	// false when the query is stopped by the budget
+	public volatile String reason = null;		// the bound which stopped the query
+	public final AtomicLong nBalls = new AtomicLong();			// the number of built balls
+	public final AtomicLong nBallVertices = new AtomicLong();	// the total number of vertices in the built balls
+	public int nCenters = 0;			// the number of centers to be evaluated by the ball stage
+	public long maxHeapDelta = 0;		// the biggest observed growth of the used heap
+	public long time = 0;				// the running time of the query in ms
+
+	private long startTime = 0;
+	private long deadline = Long.MAX_VALUE;
+	private long baseHeap = 0;
+	private final AtomicLong nChecks = new AtomicLong();
+
+	/**
+	 * the number of checks between two measurements of the heap
+	 */
+	public static int HEAP_CHECK_INTERVAL = 256;
+
+	/**
+	 * Constructor
+	 * @param timeLimit the maximum running time in ms
+	 * @param maxBallVertices the maximum total number of vertices in the built balls
+	 * @param maxHeapBytes the maximum growth of the used heap in bytes
+	 */
+	public QueryBudget(long timeLimit, long maxBallVertices, long maxHeapBytes) {
+		this.timeLimit = timeLimit;
+		this.maxBallVertices = maxBallVertices;
+		this.maxHeapBytes = maxHeapBytes;
+	}
+
+	/**
+	 * Starts the clock and takes the used heap as the base; the counters are reset
+	 */
+	public void start() {
+		complete = true;
+		reason = null;
+		nBalls.set(0);
+		nBallVertices.set(0);
+		nChecks.set(0);
+		nCenters = 0;
+		maxHeapDelta = 0;
+		time = 0;
+		startTime = System.currentTimeMillis();
+		deadline = (timeLimit > 0) ? startTime + timeLimit : Long.MAX_VALUE;
+		baseHeap = usedHeap();
+	}
+
+	/**
+	 * Records the running time of the query; it is called when the query returns
+	 */
+	public void finish() {
+		time = System.currentTimeMillis() - startTime;
+		checkHeap();
+	}
+
+	/**
+	 * Checks the deadline, and the heap once in HEAP_CHECK_INTERVAL calls
+	 * @return true when the query must stop
+	 */
+	public boolean exhausted() {
+		if(! complete)
+			return true;
+		if(System.currentTimeMillis() > deadline)
+			stop("time limit of " + timeLimit + " ms");
+		else if(maxHeapBytes > 0 && nChecks.incrementAndGet() % HEAP_CHECK_INTERVAL == 0)
+			checkHeap();
+		return ! complete;
+	}
+
+	/**
+	 * Counts a ball before it is filtered
+	 * @param nVertices the number of vertices in the ball
+	 * @return false when the ball is over the budget, so it must not be filtered; true otherwise
+	 */
+	public boolean charge(int nVertices) {
+		long balls = nBalls.incrementAndGet();
+		long vertices = nBallVertices.addAndGet(nVertices);
+		if(maxBalls > 0 && balls > maxBalls)
+			stop("limit of " + maxBalls + " balls");
+		else if(maxBallVertices > 0 && vertices > maxBallVertices)
+			stop("limit of " + maxBallVertices + " ball vertices");
+		return ! exhausted();
+	}
+
+	/**
+	 * Stops the query; only the first reason is kept
+	 */
+	public synchronized void stop(String reason) {
+		if(complete) {
+			this.reason = reason;
+			complete = false;
+		}
+	}
+
+	/**
+	 * Measures the growth of the used heap and stops the query when it is over the bound
+	 */
+	private void checkHeap() {
+		long delta = usedHeap() - baseHeap;
+		synchronized(this) {
+			if(delta > maxHeapDelta)
+				maxHeapDelta = delta;
+		}
+		if(maxHeapBytes > 0 && delta > maxHeapBytes)
+			stop("heap limit of " + (maxHeapBytes >> 20) + " MB");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns the state and the counters of the budget as a string
+	 */
+	public String toString() {
+		return (complete ? "complete" : "partial (" + reason + ")") + ", time: " + time + " ms, centers: " + nCenters 
+				+ ", balls: " + nBalls.get() + ", ball vertices: " + nBallVertices.get() + ", heap growth: " + (maxHeapDelta >> 10) + " KB";
+	}
+
+} //class
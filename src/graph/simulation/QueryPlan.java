@@ -0,0 +1,148 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The order in which the edges of a query are visited by the refinement loop of dual simulation.
+ * The most selective edges (rare labels, low out-degree) are visited first, so the relation shrinks early
+ * and the later edges have less candidates to scan. It also keeps per-edge cost counters of the refinement.
+ * @author Arash Fard
+ */
+public class QueryPlan {
+	public int[] parents = null;		// parents[i] is the source vertex u of the i-th planned query edge
+	public int[] children = null;		// children[i] is the target vertex u_c of the i-th planned query edge
+	public double[] estimates = null;	// the estimated size of phi(u) after refining the i-th edge
+
+	public long[] scanned = null;		// the number of data edges scanned for the i-th edge
+	public long[] removed = null;		// the number of candidates removed from phi(u) by the i-th edge
+	public int nPasses = 0;				// the number of passes over all the edges until the fixpoint
+
+	/**
+	 * Constructor
+	 * @param nEdges the number of edges in the query
+	 */
+	private QueryPlan(int nEdges) {
+		parents = new int[nEdges];
+		children = new int[nEdges];
+		estimates = new double[nEdges];
+		scanned = new long[nEdges];
+		removed = new long[nEdges];
+	}
+
+	/**
+	 * Builds the plan of a query for the given data graph.
+	 * For the edge (u, u_c) the expected number of vertices with label(u) having a child with label(u_c) is estimated as
+	 * freq(label(u)) * min(1, avgOutDegree(label(u)) * freq(label(u_c)) / |V|), and the edges are sorted by this estimate.
+	 * @param dataGraph the data graph whose label index and degree statistics are used
+	 * @param query the query graph
+	 * @return the plan
+	 */
+	public static QueryPlan build(Graph dataGraph, SmallGraph query) {
+		List<int[]> edges = new ArrayList<int[]>();
+		for(int u : query.labels.keySet()) {
+			for(int u_c : query.post(u))
+				edges.add(new int[] {u, u_c});
+		} //for
+
+		final double nVertices = Math.max(1, dataGraph.getNumVertices());
+		final QueryPlan plan = new QueryPlan(edges.size());
+		final double[] estimate = new double[edges.size()];
+		final double[] cost = new double[edges.size()];
+		List<Integer> order = new ArrayList<Integer>(edges.size());
+		for(int i = 0; i < edges.size(); i++) {
+			int label = query.getLabel(edges.get(i)[0]);
+			int childLabel = query.getLabel(edges.get(i)[1]);
+			double frequency = dataGraph.getLabelFrequency(label);
+			double avgDegree = dataGraph.getAverageOutDegree(label);
+			double pChild = Math.min(1.0, avgDegree * dataGraph.getLabelFrequency(childLabel) / nVertices);
+			estimate[i] = frequency * pChild;
+			cost[i] = frequency * (1 + avgDegree); // the number of scanned edges in one visit of this edge
+			order.add(i);
+		} //for
+
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer e1, Integer e2) {
+				int c = Double.compare(estimate[e1], estimate[e2]);
+				if(c == 0)
+					c = Double.compare(cost[e1], cost[e2]);
+				return c;
+			}
+		});
+
+		for(int i = 0; i < order.size(); i++) {
+			int e = order.get(i);
+			plan.parents[i] = edges.get(e)[0];
+			plan.children[i] = edges.get(e)[1];
+			plan.estimates[i] = estimate[e];
+		} //for
+		return plan;
+	} //build
+
+	/**
+	 * Returns the number of edges in the plan
+	 * @return the number of query edges
+	 */
+	public int size() {
+		return parents.length;
+	}
+
+	/**
+	 * Resets the cost counters, so the plan can be used for another run
+	 */
+	public void resetCounters() {
+		for(int i = 0; i < parents.length; i++) {
+			scanned[i] = 0;
+			removed[i] = 0;
+		}
+		nPasses = 0;
+	}
+
+	/**
+	 * Returns the total number of scanned data edges in all the passes
+	 * @return the total number of scanned edges
+	 */
+	public long totalScanned() {
+		long total = 0;
+		for(long s : scanned)
+			total += s;
+		return total;
+	}
+
+	/**
+	 * Returns the plan and its cost counters as a string
+	 */
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("edge\t estimate\t scanned\t removed\n");
+		for(int i = 0; i < parents.length; i++) {
+			s.append(parents[i] + "->" + children[i] + "\t " + (long)estimates[i] + "\t " + scanned[i] + "\t " + removed[i] + "\n");
+		}
+		s.append("passes: " + nPasses + ", total scanned: " + totalScanned() + "\n");
+		return s.toString();
+	}
+
+} //class
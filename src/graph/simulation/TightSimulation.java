@@ -20,10 +20,24 @@ package graph.simulation;
 
 import graph.common.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class TightSimulation {
@@ -35,6 +49,27 @@ public class TightSimulation {
 	 * @return All the subgraphs; i.e., the set of balls in this case
 	 */
 	public static Set<Ball> getTightSimulation(Graph dataGraph, SmallGraph query) {
+		return getTightSimulation(dataGraph, query, VIEW_BALLS);
+	} //getTightSimulation
+
+	/******************************************************************************************************
+	 * Performs tight simulation when data graph is of type Graph, and returns the balls as views over the 
+	 * compact match graph (see BallView): a result costs a few bytes per vertex and a bit per edge, but its 
+	 * vertices and labels fields are null, so it must be read through post, pre, getLabel and nodesInBall 
+	 * (or materialized first)
+	 * @param dGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @return All the subgraphs; i.e., the set of ball views in this case
+	 */
+	public static Set<Ball> getTightSimulationViews(Graph dataGraph, SmallGraph query) {
+		return getTightSimulation(dataGraph, query, true);
+	} //getTightSimulationViews
+
+	/**
+	 * Performs tight simulation when data graph is of type Graph
+	 * @param views true for the balls as views over the match graph; false for standalone balls
+	 */
+	private static Set<Ball> getTightSimulation(Graph dataGraph, SmallGraph query, boolean views) {
 		long startTime, stopTime;
 		Set<Ball> resultBalls = new HashSet<Ball>();
 		
@@ -58,7 +93,7 @@ public class TightSimulation {
 
 		// ********** FINDING THE MATCH GRAPH STEP **************//
 		startTime = System.currentTimeMillis();
-		SmallGraph newGraph = DualSimulation.getResultMatchGraph(dataGraph, query, dualSimSet);	
+		MatchGraph newGraph = MatchGraph.build(dataGraph, query, dualSimSet);	
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for dualMatchGraph: " + (stopTime - startTime) + " ms");
 
@@ -71,13 +106,7 @@ public class TightSimulation {
 		Set<Integer> matchCenters = dualSimSet.get(qCenter);
 		System.out.println("- INSIDE getTightSimulation()- the number of match vertices: " + matchCenters.size());
 		
-		for(int center : matchCenters){
-			Ball ball = new Ball(newGraph, center, qRadius); // BALL CREATION
-			// ******** DUAL FILTER STEP  **********
-			boolean found = ball.dualFilter(query, dualSimSet);
-			if(found)
-				resultBalls.add(ball);
-		} //for
+		resultBalls = evaluateBalls(newGraph, query, dualSimSet, matchCenters, qRadius, false, 0, views); // BALL CREATION and DUAL FILTER
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for ball creation and filtering: " + (stopTime - startTime) + " ms");
 
@@ -86,63 +115,118 @@ public class TightSimulation {
 
 	/******************************************************************************************************
 	 * Performs tight simulation when data graph is of type Graph
-	 * It is modified for my tests
+	 * It is modified for my tests: at most limit balls are built, and the balls found until then are returned
 	 * @param dGraph - The Data Graph.
 	 * @param query - The Query graph.
-	 * @return All the subgraphs; i.e., the set of balls in this case
+	 * @param limit - The maximum number of balls to build.
+	 * @return The subgraphs found within the limit
 	 */
 	public static Set<Ball> getTightSimulationModified(Graph dataGraph, SmallGraph query, int limit) {
+		QueryBudget budget = new QueryBudget(0, 0, 0);
+		budget.maxBalls = limit;
+		return getTightSimulation(dataGraph, query, budget);
+	} //getTightSimulationModified
+
+	/******************************************************************************************************
+	 * Performs tight simulation when data graph is of type Graph, within a budget of time, ball vertices and heap.
+	 * The refinement of dual simulation and the workers of the ball stage check the budget, and the query stops 
+	 * when it is exhausted; the balls found until then are returned and budget.complete becomes false.
+	 * The cheap centers are evaluated first, so a partial result has as many balls as possible.
+	 * @param dGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @param budget - The budget of the query; it is started here, and keeps the statistics of the query.
+	 * @return All the subgraphs; or the subgraphs found within the budget when budget.complete is false
+	 */
+	public static Set<Ball> getTightSimulation(Graph dataGraph, SmallGraph query, QueryBudget budget) {
 		long startTime, stopTime;
 		Set<Ball> resultBalls = new HashSet<Ball>();
+		budget.start();
 		
 		//********** FINDING THE "DUAL SIMULATION" STEP ********** //
 		startTime = System.currentTimeMillis();
-		Map<Integer,Set<Integer>> dualSimSet = DualSimulation.getDualSimSet(dataGraph, query);
+		Map<Integer,Set<Integer>> dualSimSet = DualSimulation.getDualSimSet(dataGraph, query, budget);
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for dualSimSet: " + (stopTime - startTime) + " ms");
-		if(dualSimSet.isEmpty()){
-			System.out.println("No Dual Match"); 
+		if(dualSimSet.isEmpty() || budget.exhausted()) {
+			if(budget.complete)
+				System.out.println("No Dual Match"); 
+			budget.finish();
+			System.out.println("- INSIDE getTightSimulation()- budget: " + budget);
 			return resultBalls;		
 		}
-		
-		// ********** finding the number of vertices in the dualSimSet **************//
-		// *** This step is not a part of the algorithm, and is done only for extracting information
+
+		// ********** FINDING THE MATCH GRAPH STEP **************//
 		startTime = System.currentTimeMillis();
-		Set<Integer> nVdualSimSet = DualSimulation.nodesInSimSet(dualSimSet);
+		MatchGraph newGraph = MatchGraph.build(dataGraph, query, dualSimSet);	
 		stopTime = System.currentTimeMillis();
-		System.out.println("- INSIDE getTightSimulation()- the number of vertices in the dualSimSet: " + nVdualSimSet.size());
-		System.out.println("- INSIDE getTightSimulation()- the time for this extra step: " + (stopTime - startTime) + " ms");
+		System.out.println("- INSIDE getTightSimulation()- time for dualMatchGraph: " + (stopTime - startTime) + " ms");
 
-		// ********** FINDING QUERY Radius and selected center ********** //
-		int qRadius = query.getRadius();
-		int qCenter = query.getSelectedCenter();
-		Set<Integer> matchCenters = dualSimSet.get(qCenter);
+		// ****** BALL CREATION STEP ********* //
+		startTime = System.currentTimeMillis();
+		Set<Integer> matchCenters = dualSimSet.get(query.getSelectedCenter());
 		System.out.println("- INSIDE getTightSimulation()- the number of match vertices: " + matchCenters.size());
-		if(matchCenters.size() > limit) { // not processing when it is likely very time consuming
-			System.out.println("- INSIDE getTightSimulation()- skip over " + limit);
-			return resultBalls;
-		}
+		BallStage stage = compactStage(newGraph, query, dualSimSet, matchCenters, query.getRadius(), false, 0, 
+				new ConcurrentLinkedQueue<Ball>(), false);
+		stage.budget = budget;
+		budget.nCenters = stage.centers.length;
+		if(! budget.exhausted())
+			stage.invoke(); // BALL CREATION and DUAL FILTER
+		resultBalls = new HashSet<Ball>(stage.results);
+		stopTime = System.currentTimeMillis();
+		System.out.println("- INSIDE getTightSimulation()- time for ball creation and filtering: " + (stopTime - startTime) + " ms");
+		budget.finish();
+		System.out.println("- INSIDE getTightSimulation()- budget: " + budget);
+
+		return resultBalls;
+	} //getTightSimulation
+
+	/******************************************************************************************************
+	 * Performs tight simulation when data graph is of type Graph, and returns only the k balls with the best score.
+	 * Each center gets an upper bound for the score of its ball from the score (see BallScore), the centers are 
+	 * evaluated from the biggest bound, and the best k balls so far are kept in a bounded heap; a worker stops 
+	 * its range of centers as soon as their bound cannot beat the k-th best score, before their balls are built.
+	 * @param dGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @param k - The number of the wanted balls.
+	 * @param score - The score of the balls (e.g., BallScores.SIZE).
+	 * @return The k balls with the best score (less when there are less results), from the best one; 
+	 * 		the order of the balls with equal scores is not defined
+	 */
+	public static List<Ball> getTopKTightSimulation(Graph dataGraph, SmallGraph query, int k, BallScore score) {
+		long startTime, stopTime;
 		
+		//********** FINDING THE "DUAL SIMULATION" STEP ********** //
+		startTime = System.currentTimeMillis();
+		Map<Integer,Set<Integer>> dualSimSet = DualSimulation.getDualSimSet(dataGraph, query);
+		stopTime = System.currentTimeMillis();
+		System.out.println("- INSIDE getTightSimulation()- time for dualSimSet: " + (stopTime - startTime) + " ms");
+		if(dualSimSet.isEmpty() || k <= 0) {
+			System.out.println("No Dual Match"); 
+			return new ArrayList<Ball>();		
+		}
+
 		// ********** FINDING THE MATCH GRAPH STEP **************//
 		startTime = System.currentTimeMillis();
-		SmallGraph newGraph = DualSimulation.getResultMatchGraph(dataGraph, query, dualSimSet);	
+		MatchGraph newGraph = MatchGraph.build(dataGraph, query, dualSimSet);	
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for dualMatchGraph: " + (stopTime - startTime) + " ms");
-		
+
 		// ****** BALL CREATION STEP ********* //
 		startTime = System.currentTimeMillis();
-		for(int center : matchCenters){
-			Ball ball = new Ball(newGraph, center, qRadius); // BALL CREATION
-			// ******** DUAL FILTER STEP  **********
-			boolean found = ball.dualFilter(query, dualSimSet);
-			if(found)
-				resultBalls.add(ball);
-		} //for
+		Set<Integer> matchCenters = dualSimSet.get(query.getSelectedCenter());
+		System.out.println("- INSIDE getTightSimulation()- the number of match vertices: " + matchCenters.size());
+		BallStage stage = compactStage(newGraph, query, dualSimSet, matchCenters, query.getRadius(), false, 0, 
+				new ConcurrentLinkedQueue<Ball>(), true);
+		stage.rank(score, k);
+		stage.invoke(); // BALL CREATION and DUAL FILTER
+		List<Ball> resultBalls = stage.topK.sorted();
 		stopTime = System.currentTimeMillis();
+		System.out.println("- INSIDE getTightSimulation()- top-k: centers: " + stage.centers.length + ", skipped by bound: " 
+				+ stage.topK.nSkipped.get() + ", k-th score: " + stage.topK.threshold);
 		System.out.println("- INSIDE getTightSimulation()- time for ball creation and filtering: " + (stopTime - startTime) + " ms");
 
 		return resultBalls;
-	} //getTightSimulationModified
+	} //getTopKTightSimulation
 
 	/******************************************************************************************************
 	 * Performs new-tight simulation when data graph is of type Graph
@@ -185,22 +269,14 @@ public class TightSimulation {
 		
 		// ********** FINDING THE MATCH GRAPH STEP **************//
 		startTime = System.currentTimeMillis();
-		SmallGraph newGraph = DualSimulation.getResultMatchGraph(dataGraph, query, dualSimSet);	
+		MatchGraph newGraph = MatchGraph.build(dataGraph, query, dualSimSet);	
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for dualMatchGraph: " + (stopTime - startTime) + " ms");
 		notes.append((stopTime - startTime) + "\t");
 		
 		// ****** BALL CREATION STEP ********* //
 		startTime = System.currentTimeMillis();
-		for(int center : matchCenters){
-			Ball ball = new Ball(newGraph, center, qRadius); // BALL CREATION
-			// ******** DUAL FILTER STEP  **********
-			boolean found = ball.newDualFilter(query, dualSimSet);
-			if(found) {
-				resultBalls.add(ball);
-				if(resultBalls.size() == limit) break; // it will never happen when limit=0, so finds all the results
-			} //if
-		} //for
+		resultBalls = evaluateBalls(newGraph, query, dualSimSet, matchCenters, qRadius, true, limit); // finds all the results when limit=0
 		stopTime = System.currentTimeMillis();
 		System.out.println("- INSIDE getTightSimulation()- time for ball creation and filtering: " + (stopTime - startTime) + " ms");
 		notes.append((stopTime - startTime) + "\t");
@@ -235,15 +311,7 @@ public class TightSimulation {
 		SmallGraph newGraph = DualSimulation.getResultMatchGraph(dataGraph, query, dualSimSet);	
 		
 		// ****** BALL CREATION STEP ********* //
-		for(int center : matchCenters){
-			Ball ball = new Ball(newGraph, center, qRadius); // BALL CREATION
-			// ******** DUAL FILTER STEP  **********
-			boolean found = ball.newDualFilter(query, dualSimSet);
-			if(found) {
-				resultBalls.add(ball);
-				if(resultBalls.size() == limit) break;
-			}
-		} //for
+		resultBalls = evaluateBalls(newGraph, query, dualSimSet, matchCenters, qRadius, true, limit); // BALL CREATION and NEW-DUAL FILTER
 
 		return resultBalls;
 	} //getNewTightSimulation
@@ -274,36 +342,690 @@ public class TightSimulation {
 		// ****** BALL CREATION STEP ********* //
 		Set<Integer> matchCenters = dualSimSet.get(qCenter);
 
-		for(int center : matchCenters){
-			Ball ball = new Ball(newGraph, center, qRadius); // BALL CREATION
-			// ******** DUAL FILTER STEP  **********
-			boolean found = ball.dualFilter(query, dualSimSet);
-			if(found)
-				resultBalls.add(ball);
-		} //for
+		resultBalls = evaluateBalls(newGraph, query, dualSimSet, matchCenters, qRadius, false, 0); // BALL CREATION and DUAL FILTER
 
 		return resultBalls;
 	}
 
+	/******************************************************************************************************
+	 * Performs tight simulation in the strong mode; i.e., the balls are created on the data graph instead of 
+	 * the match graph, and the dual simulation relation is projected on them. The neighborhoods are taken 
+	 * from the cache, so they are shared by the queries with the same radius; the vertices of the relation are 
+	 * found once as a bitmap, and each ball keeps only those vertices while it is built.
+	 * @param dataGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @param neighborhoods the cache of the neighborhoods of dataGraph
+	 * @return All the subgraphs; i.e., the set of balls in this case
+	 */
+	public static Set<Ball> getStrongSimulation(Graph dataGraph, SmallGraph query, NeighborhoodCache neighborhoods) {
+		Map<Integer,Set<Integer>> dualSimSet = DualSimulation.getDualSimSet(dataGraph, query);
+		if(dualSimSet.isEmpty())
+			return new HashSet<Ball>();
+		prepareQuery(query);
+		BitSet matchNodes = DualSimulation.nodesInSimBits(dualSimSet);
+
+		Set<Integer> matchCenters = dualSimSet.get(query.getSelectedCenter());
+		int[] centers = new int[matchCenters.size()];
+		long[] degree = new long[centers.length];
+		int k = 0;
+		for(int center : matchCenters) {
+			centers[k] = center;
+			degree[k++] = dataGraph.getOutDegree(center) + dataGraph.pre(center).size();
+		} //for
+		BallStage stage = new BallStage(null, null, query, dualSimSet, query.getRadius(), false, 0, 
+				new ConcurrentLinkedQueue<Ball>());
+		stage.dataGraph = dataGraph;
+		stage.neighborhoods = neighborhoods;
+		stage.matchNodes = matchNodes;
+		stage.sort(centers, degree, true);
+		stage.invoke();
+		return new HashSet<Ball>(stage.results);
+	} //getStrongSimulation
+
+	/******************************************************************************************************
+	 * Performs tight simulation in the strong mode without keeping the neighborhoods for the next queries
+	 * @param dataGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @return All the subgraphs; i.e., the set of balls in this case
+	 */
+	public static Set<Ball> getStrongSimulation(Graph dataGraph, SmallGraph query) {
+		return getStrongSimulation(dataGraph, query, new NeighborhoodCache(dataGraph, 0));
+	}
+
+	/******************************************************************************************************
+	 * Performs (new-)tight simulation lazily; the balls are returned as soon as they pass the filter, 
+	 * while the rest are still evaluated in the background. The result is not filtered by filterMatchGraphs.
+	 * The evaluation does not run ahead of the reader by more than a ball per worker, and it stops when the iterator 
+	 * is cancelled or closed; an iterator which is not read to the end MUST be closed to release its threads.
+	 * @param dataGraph - The Data Graph.
+	 * @param query - The Query graph.
+	 * @param newDual true for new-tight simulation; false for tight simulation
+	 * @return the iterator over the balls
+	 */
+	public static TightSimulationIterator getTightSimulationIterator(Graph dataGraph, SmallGraph query, boolean newDual) {
+		return new TightSimulationIterator(dataGraph, query, newDual);
+	}
+
+	/**
+	 * the estimated cost (in visited edges) of the balls evaluated by one parallel task
+	 */
+	public static int BALL_GRAIN = 1 << 14;
+
+	/**
+	 * when it is true, the centers whose balls cannot pass the filter are removed before the balls are built (see CenterPruning)
+	 */
+	public static boolean PRUNE_CENTERS = true;
+
+	/**
+	 * when it is true, the balls on a dense compact match graph are built in batches with one shared BFS per batch
+	 */
+	public static boolean SHARED_BFS = true;
+
+	/**
+	 * the minimum average out-degree of the match graph for the shared BFS; the balls of sparse graphs overlap too little
+	 */
+	public static double SHARED_BFS_MIN_DEGREE = 4;
+
+	/**
+	 * when it is true, the balls of tight simulation on the compact match graph are returned as views over it (see BallView);
+	 * views have no vertices and labels maps, so they are only returned when it is asked (see getTightSimulationViews)
+	 */
+	public static boolean VIEW_BALLS = false;
+
+	/**
+	 * the BFS buffers of each worker thread, reused by all the balls it builds
+	 */
+	private static final ThreadLocal<BallScratch> SCRATCH = new ThreadLocal<BallScratch>() {
+		@Override
+		protected BallScratch initialValue() {
+			return new BallScratch();
+		}
+	};
+
+	/******************************************************************************************************
+	 * Builds the balls around the match centers and filters them, in parallel. The balls are independent; 
+	 * the centers are sorted by their degree in the match graph, so the expensive balls are started first, 
+	 * and the ranges are split by their estimated cost and balanced by work stealing.
+	 * @param matchGraph the result match graph of dual simulation
+	 * @param query the query graph
+	 * @param dualSimSet the dual simulation relation (it is only read)
+	 * @param matchCenters the candidate centers of the balls
+	 * @param radius the radius of the balls
+	 * @param newDual true for newDualFilter; false for dualFilter
+	 * @param limit the upper bound for the number of results, no limit when it is 0
+	 * @return the balls which keep their center after filtering
+	 */
+	static Set<Ball> evaluateBalls(SmallGraph matchGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet,
+			Set<Integer> matchCenters, int radius, boolean newDual, int limit) {
+		// the lazy parts of the shared graphs are built here, so the workers only read them
+		matchGraph.buildParentIndex();
+		for(int v : matchGraph.labels.keySet()) {
+			matchGraph.post(v);
+			matchGraph.pre(v);
+		} //for
+		prepareQuery(query);
+
+		int[] centers = new int[matchCenters.size()];
+		long[] degree = new long[centers.length];
+		int k = 0;
+		for(int center : matchCenters) {
+			centers[k] = center;
+			degree[k++] = matchGraph.post(center).size() + matchGraph.pre(center).size();
+		} //for
+		BallStage stage = new BallStage(matchGraph, null, query, dualSimSet, radius, newDual, limit, 
+				new ConcurrentLinkedQueue<Ball>());
+		stage.sort(centers, degree, true);
+		stage.invoke();
+		return new HashSet<Ball>(stage.results);
+	} //evaluateBalls
+
+	/******************************************************************************************************
+	 * Builds the balls around the match centers on the compact match graph and filters them, in parallel
+	 * (see the other evaluateBalls). The balls are built in the reusable arrays of each worker, and only 
+	 * the balls which pass the filter become Ball objects.
+	 * @param matchGraph the compact result match graph of dual simulation
+	 * @param query the query graph
+	 * @param dualSimSet the dual simulation relation (it is only read)
+	 * @param matchCenters the candidate centers of the balls (data graph ids)
+	 * @param radius the radius of the balls
+	 * @param newDual true for newDualFilter; false for dualFilter
+	 * @param limit the upper bound for the number of results, no limit when it is 0
+	 * @return the balls which keep their center after filtering
+	 */
+	static Set<Ball> evaluateBalls(MatchGraph matchGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet,
+			Set<Integer> matchCenters, int radius, boolean newDual, int limit) {
+		return evaluateBalls(matchGraph, query, dualSimSet, matchCenters, radius, newDual, limit, VIEW_BALLS);
+	}
+
+	/**
+	 * Same as the previous evaluateBalls
+	 * @param views true for the balls of tight simulation as views over the match graph (see BallView)
+	 */
+	static Set<Ball> evaluateBalls(MatchGraph matchGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet,
+			Set<Integer> matchCenters, int radius, boolean newDual, int limit, boolean views) {
+		BallStage stage = compactStage(matchGraph, query, dualSimSet, matchCenters, radius, newDual, limit, 
+				new ConcurrentLinkedQueue<Ball>(), true);
+		stage.views = views;
+		if(stage.pruning != null)
+			System.out.println("- INSIDE getTightSimulation()- center pruning: " + stage.pruning);
+		stage.invoke();
+		return new HashSet<Ball>(stage.results);
+	} //evaluateBalls
+
+	/**
+	 * Creates the ball stage of the compact match graph; the balls which pass the filter are added to results
+	 * @param heavyFirst true for the order with the best throughput: the centers of one ball together when the balls 
+	 * 		share their BFS, or else the high-degree centers first; false to start from the cheap centers 
+	 * 		(the first results are found sooner)
+	 */
+	static BallStage compactStage(MatchGraph matchGraph, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet,
+			Set<Integer> matchCenters, int radius, boolean newDual, int limit, Queue<Ball> results, boolean heavyFirst) {
+		prepareQuery(query);
+		int[] centers = new int[matchCenters.size()];
+		int k = 0;
+		for(int center : matchCenters)
+			centers[k++] = matchGraph.localId(center);
+		CenterPruning pruning = null;
+		if(PRUNE_CENTERS) { // removing the centers whose balls cannot pass the filter
+			pruning = new CenterPruning();
+			centers = pruning.prune(matchGraph, centers, radius);
+		} //if
+		long[] degree = new long[centers.length];
+		for(int i = 0; i < centers.length; i++) {
+			int c = centers[i];
+			degree[i] = matchGraph.offsets[c + 1] - matchGraph.offsets[c] + matchGraph.rOffsets[c + 1] - matchGraph.rOffsets[c];
+		} //for
+		BallStage stage = new BallStage(null, matchGraph, query, dualSimSet, radius, newDual, limit, results);
+		stage.pruning = pruning;
+		stage.sharedBfs = SHARED_BFS && matchGraph.targets.length >= SHARED_BFS_MIN_DEGREE * matchGraph.getNumVertices();
+		if(heavyFirst && stage.sharedBfs)
+			stage.sort(centers, degree, localityKey(matchGraph, centers, radius));
+		else
+			stage.sort(centers, degree, heavyFirst);
+		return stage;
+	}
+
+	/**
+	 * Orders the centers so the centers of one ball come together: the first unvisited center is followed by 
+	 * the unvisited centers in its ball (by a BFS of the radius on the underlying undirected graph)
+	 * @return the sort key of each center
+	 */
+	private static long[] localityKey(MatchGraph mg, int[] centers, int radius) {
+		int n = mg.getNumVertices();
+		int[] rank = new int[n];		// the rank of each center; -1 for the others
+		Arrays.fill(rank, -1);
+		boolean[] isCenter = new boolean[n];
+		for(int c : centers)
+			isCenter[c] = true;
+		int[] stamp = new int[n];		// stamp[v] == seed + 1 when v is visited by the BFS of the seed
+		int[] queue = new int[n];
+		int[] dist = new int[n];
+		int nRanked = 0;
+		for(int seed = 0; seed < centers.length; seed++) {
+			int c = centers[seed];
+			if(rank[c] >= 0)
+				continue;
+			int head = 0, tail = 0;
+			stamp[c] = seed + 1;
+			dist[c] = 0;
+			queue[tail++] = c;
+			while(head < tail) {
+				int v = queue[head++];
+				if(isCenter[v] && rank[v] < 0)
+					rank[v] = nRanked++;
+				if(dist[v] == radius)
+					continue;
+				for(int e = mg.offsets[v]; e < mg.offsets[v + 1]; e++) {
+					int t = mg.targets[e];
+					if(stamp[t] != seed + 1) {
+						stamp[t] = seed + 1;
+						dist[t] = dist[v] + 1;
+						queue[tail++] = t;
+					}
+				} //for
+				for(int e = mg.rOffsets[v]; e < mg.rOffsets[v + 1]; e++) {
+					int t = mg.sources[e];
+					if(stamp[t] != seed + 1) {
+						stamp[t] = seed + 1;
+						dist[t] = dist[v] + 1;
+						queue[tail++] = t;
+					}
+				} //for
+			} //while
+		} //for
+		long[] key = new long[centers.length];
+		for(int i = 0; i < centers.length; i++)
+			key[i] = rank[centers[i]];
+		return key;
+	}
+
+	/**
+	 * Builds the lazy parts of the query, so the workers only read it
+	 */
+	private static void prepareQuery(SmallGraph query) {
+		query.buildParentIndex();
+		for(int u : query.labels.keySet()) {
+			query.post(u);
+			query.pre(u);
+		} //for
+	}
+
+	/**
+	 * The shared state of one parallel ball stage
+	 */
+	static class BallStage {
+		final SmallGraph matchGraph;	// the match graph when the balls are built as SmallGraphs
+		final MatchGraph compact;		// the match graph when the balls are built in the arrays of the workers
+		final SmallGraph query;
+		final Map<Integer, Set<Integer>> dualSimSet;
+		final int radius;
+		final boolean newDual;
+		final int limit;
+		int[] centers = null;			// the centers in the order of evaluation
+		long[] prefixCost = null;		// prefixCost[i] is the estimated cost of the first i centers
+		final Queue<Ball> results;		// the balls which pass the filter, as soon as they are found
+										// (a bounded BlockingQueue blocks the workers until the balls are taken)
+		ForkJoinPool pool = null;		// the pool of the workers; null for the common pool
+		boolean views = VIEW_BALLS;		// true for the balls of tight simulation as views over compact (see BallView)
+		final AtomicInteger nFound = new AtomicInteger();	// stops all the workers when limit results are found
+		volatile boolean cancelled = false;				// stops all the workers when the results are not needed anymore
+		Graph dataGraph = null;					// the data graph when the balls are built on it (the strong mode)
+		NeighborhoodCache neighborhoods = null;	// the neighborhoods of dataGraph in the strong mode
+		BitSet matchNodes = null;				// the vertices of the relation in the strong mode
+		CenterPruning pruning = null;			// the counters of the center pruning; null when it is not done
+		boolean sharedBfs = false;				// true when the balls of the compact match graph are built in batches
+		QueryBudget budget = null;				// the budget of the query; null when it has no budget
+		TopK topK = null;						// the best balls in the top-k mode; null in the other modes
+		double[] bounds = null;					// the upper bound for the score of the ball of each sorted center (top-k mode)
+
+		BallStage(SmallGraph matchGraph, MatchGraph compact, SmallGraph query, Map<Integer, Set<Integer>> dualSimSet, 
+				int radius, boolean newDual, int limit, Queue<Ball> results) {
+			this.matchGraph = matchGraph;
+			this.compact = compact;
+			this.query = query;
+			this.dualSimSet = dualSimSet;
+			this.radius = radius;
+			this.newDual = newDual;
+			this.limit = limit;
+			this.results = results;
+		}
+
+		/**
+		 * Sorts the centers by their degree and computes their prefix costs
+		 * @param centers the centers
+		 * @param degree the degree of each center in the match graph
+		 * @param heavyFirst true for the descending order of degree; false for the ascending one
+		 */
+		void sort(int[] centers, long[] degree, boolean heavyFirst) {
+			long[] key = new long[centers.length];
+			for(int i = 0; i < centers.length; i++)
+				key[i] = heavyFirst ? -degree[i] : degree[i];
+			sort(centers, degree, key);
+		}
+
+		/**
+		 * Sorts the centers by the given key (ascending) and computes their prefix costs
+		 * @param centers the centers
+		 * @param degree the degree of each center in the match graph
+		 * @param key the sort key of each center
+		 */
+		void sort(int[] centers, long[] degree, final long[] key) {
+			int n = centers.length;
+			Integer[] order = new Integer[n];
+			for(int i = 0; i < n; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer c1, Integer c2) {
+					return Long.compare(key[c1], key[c2]);
+				}
+			});
+			this.centers = new int[n];
+			this.prefixCost = new long[n + 1];
+			for(int i = 0; i < n; i++) {
+				this.centers[i] = centers[order[i]];
+				this.prefixCost[i + 1] = prefixCost[i] + degree[order[i]] + 1;
+			} //for
+		}
+
+		/**
+		 * Turns the stage to the top-k mode: the centers are sorted by the upper bound of the score of their balls 
+		 * (the biggest first), and the results go to a heap of the best k balls instead of results
+		 */
+		void rank(BallScore score, int k) {
+			double[] vertexBound = score.bounds(compact, radius);
+			int[] centers = this.centers;
+			long[] degree = new long[centers.length];
+			long[] key = new long[centers.length];
+			for(int i = 0; i < centers.length; i++) {
+				int c = centers[i];
+				degree[i] = compact.offsets[c + 1] - compact.offsets[c] + compact.rOffsets[c + 1] - compact.rOffsets[c];
+				long bits = Double.doubleToLongBits(vertexBound[c]);
+				key[i] = ~((bits < 0) ? bits ^ Long.MAX_VALUE : bits); // the descending order of the bound
+			} //for
+			sort(centers, degree, key);
+			bounds = new double[centers.length];
+			for(int i = 0; i < centers.length; i++)
+				bounds[i] = vertexBound[this.centers[i]];
+			sharedBfs = false; // the batches follow the order of the ball overlaps, not of the bounds
+			topK = new TopK(k, score);
+		}
+
+		/**
+		 * Adds a ball which passed the filter to the results, or to the heap of the best balls
+		 */
+		private void found(Ball ball) {
+			if(topK != null)
+				topK.offer(ball);
+			else if(limit == 0 || nFound.incrementAndGet() <= limit) {
+				if(results instanceof BlockingQueue)
+					put((BlockingQueue<Ball>) results, ball);
+				else
+					results.add(ball);
+			} //if-else
+		}
+
+		/**
+		 * Hands a ball to a bounded queue; the worker waits until the ball is taken or the stage is cancelled,
+		 * so the stage must run in its own pool (see TightSimulationIterator)
+		 */
+		private void put(BlockingQueue<Ball> queue, Ball ball) {
+			try {
+				while(! cancelled) {
+					if(queue.offer(ball, 10, TimeUnit.MILLISECONDS))
+						return;
+				} //while
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelled = true;
+			}
+		}
+
+		/**
+		 * Checks if the workers must stop: the stage is cancelled, enough results are found, or the budget is exhausted
+		 */
+		boolean stopped() {
+			return cancelled || (limit > 0 && nFound.get() >= limit) || (budget != null && budget.exhausted());
+		}
+
+		/**
+		 * Counts a built ball in the budget
+		 * @return false when the ball is over the budget, so it must not be filtered
+		 */
+		private boolean charge(int nVertices) {
+			return budget == null || budget.charge(nVertices);
+		}
+
+		/**
+		 * Evaluates the balls of all the sorted centers in its pool (the common pool by default), and returns when all the workers are done
+		 */
+		void invoke() {
+			((pool == null) ? ForkJoinPool.commonPool() : pool).invoke(new BallTask(this, 0, centers.length));
+		}
+
+		/**
+		 * Builds and filters the balls of the centers in [lo, hi)
+		 */
+		void evaluate(int lo, int hi) {
+			BallScratch scratch = SCRATCH.get();
+			if(compact != null && sharedBfs) {
+				evaluateBatches(lo, hi, scratch);
+				return;
+			}
+			for(int i = lo; i < hi; i++) {
+				if(stopped())
+					return; // enough results are found by all the workers, or the stage is cancelled or out of budget
+				if(topK != null && ! topK.canBeat(bounds[i])) {
+					topK.nSkipped.addAndGet(hi - i);
+					return; // the bounds of the rest of the range are not bigger
+				} //if
+				Ball ball;
+				if(dataGraph != null)
+					ball = filterStrongBall(centers[i]);
+				else
+					ball = (compact == null) ? filterBall(centers[i], scratch) : filterCompactBall(centers[i], scratch);
+				if(ball != null)
+					found(ball);
+			} //for
+		}
+
+		/**
+		 * Builds and filters the balls of the centers in [lo, hi) on the compact match graph, 
+		 * BATCH balls with one shared BFS
+		 */
+		private void evaluateBatches(int lo, int hi, BallScratch scratch) {
+			for(int start = lo; start < hi; start += BallScratch.BATCH) {
+				int count = Math.min(BallScratch.BATCH, hi - start);
+				if(stopped())
+					return;
+				scratch.extractBatch(compact, centers, start, count, radius); // BALL CREATION
+				for(int i = 0; i < count; i++) {
+					if(stopped())
+						return;
+					scratch.selectBall(compact, i);
+					if(! charge(scratch.size()))
+						return;
+					Ball ball = filterCurrentBall(scratch);
+					if(ball != null)
+						found(ball);
+				} //for
+			} //for
+		}
+
+		/**
+		 * Builds the ball of a center as a SmallGraph and filters it
+		 * @return the ball; null when it is rejected
+		 */
+		private Ball filterBall(int center, BallScratch scratch) {
+			Ball ball = new Ball(matchGraph, center, radius, scratch); // BALL CREATION
+			if(! charge(ball.nodesInBall.size()))
+				return null;
+			// ******** DUAL FILTER STEP  **********
+			boolean found = newDual ? ball.newDualFilter(query, dualSimSet) : ball.dualFilter(query, dualSimSet);
+			return found ? ball : null;
+		}
+
+		/**
+		 * Builds the ball of a center on the data graph from its cached neighborhood, projected on the relation, 
+		 * and filters it
+		 * @return the ball; null when it is rejected
+		 */
+		private Ball filterStrongBall(int center) {
+			Ball ball = new Ball(dataGraph, center, radius, neighborhoods.get(center, radius), matchNodes); // BALL CREATION
+			if(! charge(ball.nodesInBall.size()))
+				return null;
+			// ******** DUAL FILTER STEP  **********
+			return ball.dualFilter(query, dualSimSet) ? ball : null;
+		}
+
+		/**
+		 * Builds the ball of a center in the arrays of the worker and filters it there; 
+		 * a rejected ball does not allocate anything
+		 * @return the ball; null when it is rejected
+		 */
+		private Ball filterCompactBall(int center, BallScratch scratch) {
+			scratch.extract(compact, center, radius); // BALL CREATION
+			if(! charge(scratch.size()))
+				return null;
+			return filterCurrentBall(scratch);
+		}
+
+		/**
+		 * Filters the current compact ball of the worker
+		 * @return the ball; null when it is rejected
+		 */
+		private Ball filterCurrentBall(BallScratch scratch) {
+			// ******** DUAL FILTER STEP  **********
+			if(! scratch.dualFilter(compact))
+				return null;
+			if(! newDual)
+				return views ? scratch.toView(compact) : scratch.toBall(compact, true);
+			// the new-dual relation is a subset of the dual one, so only the balls passing dualFilter are built
+			Ball ball = scratch.toBall(compact, false);
+			return ball.newDualFilter(query, dualSimSet) ? ball : null;
+		}
+	} // BallStage
+
+	/**
+	 * The best k balls found by the workers of a top-k stage; a min-heap on the score, so the k-th best score is on top
+	 */
+	static class TopK {
+		final int k;
+		final BallScore score;
+		private final PriorityQueue<ScoredBall> heap;
+		volatile double threshold = Double.NEGATIVE_INFINITY;	// the k-th best score; -infinity until k balls are found
+		final AtomicInteger nSkipped = new AtomicInteger();		// the number of centers skipped by their bound
+
+		TopK(int k, BallScore score) {
+			this.k = k;
+			this.score = score;
+			this.heap = new PriorityQueue<ScoredBall>(k);
+		}
+
+		/**
+		 * Checks if a ball with the given upper bound for its score can enter the heap
+		 */
+		boolean canBeat(double bound) {
+			return bound > threshold;
+		}
+
+		/**
+		 * Scores a ball and keeps it if it is one of the best k balls so far
+		 */
+		void offer(Ball ball) {
+			double s = score.score(ball);
+			synchronized(this) {
+				if(heap.size() < k)
+					heap.add(new ScoredBall(ball, s));
+				else if(s > heap.peek().score) {
+					heap.poll();
+					heap.add(new ScoredBall(ball, s));
+				} else
+					return;
+				if(heap.size() == k)
+					threshold = heap.peek().score;
+			} //synchronized
+		}
+
+		/**
+		 * Returns the balls in the heap from the best one
+		 */
+		synchronized List<Ball> sorted() {
+			List<ScoredBall> scored = new ArrayList<ScoredBall>(heap);
+			Collections.sort(scored, Collections.reverseOrder());
+			List<Ball> balls = new ArrayList<Ball>(scored.size());
+			for(ScoredBall sb : scored)
+				balls.add(sb.ball);
+			return balls;
+		}
+	} // TopK
+
+	/**
+	 * A ball and its score, ordered by the score
+	 */
+	private static class ScoredBall implements Comparable<ScoredBall> {
+		final Ball ball;
+		final double score;
+
+		ScoredBall(Ball ball, double score) {
+			this.ball = ball;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(ScoredBall other) {
+			return Double.compare(score, other.score);
+		}
+	} // ScoredBall
+
+	/**
+	 * A range of the sorted centers; it is split at the middle of its cost until the cost is not bigger than BALL_GRAIN
+	 */
+	@SuppressWarnings("serial")
+	private static class BallTask extends RecursiveAction {
+		private final BallStage stage;
+		private final int lo, hi;
+
+		BallTask(BallStage stage, int lo, int hi) {
+			this.stage = stage;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(stage.stopped())
+				return;
+			long[] prefixCost = stage.prefixCost;
+			if(hi - lo <= 1 || prefixCost[hi] - prefixCost[lo] <= BALL_GRAIN) {
+				stage.evaluate(lo, hi);
+				return;
+			}
+			// the split point where the cost of the left part reaches half of the range
+			int mid = Arrays.binarySearch(prefixCost, lo + 1, hi, (prefixCost[lo] + prefixCost[hi]) / 2);
+			if(mid < 0) mid = -mid - 1;
+			mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+			invokeAll(new BallTask(stage, lo, mid), new BallTask(stage, mid, hi));
+		}
+	} // BallTask
+
 	/********************************************************************************
-	 * This method filters any ball which is superset of any other ball
+	 * This method filters any ball which is superset of any other ball (only one of equal balls is kept).
+	 * The balls are visited from the smallest one, so a ball can only contain the balls which are already kept.
+	 * An inverted index from the vertices to the kept balls counts, for each kept ball, how many of its vertices 
+	 * are in the visited ball; only the balls with all of their vertices there are verified by Ball.contains.
 	 * @param matchGraphs the result of tight simulation in the center->ball format which will be filtered
 	 */
 	public static void filterMatchGraphs(Set<Ball> matchGraphs) {
-		
-		Iterator<Ball> it = matchGraphs.iterator();
-		while(it.hasNext()) {
-			Ball theBall = it.next();
-			Set<Ball> tempBalls = new HashSet<Ball>(matchGraphs);
-			tempBalls.remove(theBall); // not comparing theBall with itself
-			for(Ball aBall : tempBalls) {
-				if(theBall.contains(aBall)) {
-					it.remove();
-					matchGraphs.remove(it);
-					break;
-				}
+		List<Ball> balls = new ArrayList<Ball>(matchGraphs);
+		final Map<Ball, Long> size = new HashMap<Ball, Long>(balls.size());
+		for(Ball ball : balls) {
+			long nEdges = 0;
+			for(int v : ball.nodesInBall)
+				nEdges += ball.post(v).size();
+			size.put(ball, ((long) ball.nodesInBall.size() << 32) + nEdges);
+		} //for
+		// a ball can contain another one only if it does not have less vertices or edges
+		Collections.sort(balls, new Comparator<Ball>() {
+			@Override
+			public int compare(Ball b1, Ball b2) {
+				return Long.compare(size.get(b1), size.get(b2));
+			}
+		});
+
+		List<Ball> kept = new ArrayList<Ball>();
+		Map<Integer, List<Integer>> index = new HashMap<Integer, List<Integer>>();	// vertex -> the indexes of the kept balls having it
+		int[] hits = new int[balls.size()];
+		List<Integer> touched = new ArrayList<Integer>();
+		for(Ball theBall : balls) {
+			boolean containsAny = false;
+			for(int v : theBall.nodesInBall) {
+				List<Integer> postings = index.get(v);
+				if(postings == null) continue;
+				for(int k : postings) {
+					if(hits[k]++ == 0)
+						touched.add(k);
+				} //for
+			} //for
+			for(int k : touched) {
+				if(! containsAny && hits[k] == kept.get(k).nodesInBall.size() && theBall.contains(kept.get(k)))
+					containsAny = true;
+				hits[k] = 0;
+			} //for
+			touched.clear();
+			if(containsAny)
+				continue;
+
+			for(int v : theBall.nodesInBall) {
+				if(index.get(v) == null)
+					index.put(v, new ArrayList<Integer>());
+				index.get(v).add(kept.size());
 			} //for
-		} //while
+			kept.add(theBall);
+		} //for
+
+		matchGraphs.clear();
+		matchGraphs.addAll(kept);
 	}//filterMatchGraphs
 
 	/*************************************************************************************************
@@ -0,0 +1,206 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package graph.simulation;
+
+import graph.common.Ball;
+import graph.common.Graph;
+import graph.common.MatchGraph;
+import graph.common.SmallGraph;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The results of (new-)tight simulation as a lazy stream of balls. 
+ * The stages run in a background thread, and each ball is handed to the caller as soon as it passes the filter, 
+ * while the other balls are still evaluated; the cheap centers are evaluated first, so the first results come early.
+ * The hand-off queue holds at most one ball per worker: when the caller does not take the balls, the workers 
+ * (in a pool of this iterator) wait, so the evaluation does not run ahead of the caller.
+ * The caller MUST call close() (or cancel(), or use try-with-resources) when it stops reading before the end;
+ * otherwise the background thread and the waiting workers are never released.
+ * The balls are not filtered by filterMatchGraphs, because that needs all of them.
+ * @author Arash Fard
+ */
+public class TightSimulationIterator implements Iterator<Ball>, AutoCloseable {
+	private static final Ball END = new Ball();	// the marker of the end of the results in the queue
+
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final BlockingQueue<Ball> queue = new ArrayBlockingQueue<Ball>(pool.getParallelism() + 1);
+	private volatile TightSimulation.BallStage stage = null;
+	private volatile boolean cancelled = false;
+	private volatile Throwable failure = null;
+	private Ball next = null;
+	private boolean done = false;
+
+	public int nBalls = 0;				// the number of balls returned to the caller
+	public long firstResultTime = -1;	// the time from the start to the first ball in ms; -1 if there is none
+	public volatile CenterPruning pruning = null;	// the counters of the center pruning, when it is done
+	private final long startTime;
+
+	/**
+	 * Starts the evaluation in a background thread
+	 * @param dataGraph the data graph
+	 * @param query the query graph
+	 * @param newDual true for new-tight simulation; false for tight simulation
+	 */
+	TightSimulationIterator(final Graph dataGraph, final SmallGraph query, final boolean newDual) {
+		startTime = System.currentTimeMillis();
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					produce(dataGraph, query, newDual);
+				} catch(Throwable e) {
+					failure = e;
+				} finally {
+					pool.shutdown();
+					end();
+				}
+			}
+		}, "tight-simulation");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Runs the stages of tight simulation; the results are added to the queue by the workers of the ball stage
+	 */
+	private void produce(Graph dataGraph, SmallGraph query, boolean newDual) {
+		Map<Integer, Set<Integer>> dualSimSet = newDual ? DualSimulation.getNewDualSimSet(dataGraph, query) 
+				: DualSimulation.getDualSimSet(dataGraph, query);
+		if(cancelled || dualSimSet.isEmpty())
+			return;
+		MatchGraph matchGraph = MatchGraph.build(dataGraph, query, dualSimSet);
+		if(cancelled)
+			return;
+		Set<Integer> matchCenters = dualSimSet.get(query.getSelectedCenter());
+		stage = TightSimulation.compactStage(matchGraph, query, dualSimSet, matchCenters, query.getRadius(), newDual, 0, queue, false);
+		stage.pool = pool;
+		pruning = stage.pruning;
+		if(cancelled) // cancel() may have missed the stage
+			stage.cancelled = true;
+		stage.invoke();
+	}
+
+	/**
+	 * Adds the marker of the end after the last ball, waiting for a free place unless the run is cancelled
+	 */
+	private void end() {
+		try {
+			while(! cancelled) {
+				if(queue.offer(END, 10, TimeUnit.MILLISECONDS))
+					return;
+			} //while
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the next ball is found or the evaluation is finished
+	 * @return true if there is another ball
+	 */
+	@Override
+	public boolean hasNext() {
+		if(cancelled)
+			return false;
+		if(next != null)
+			return true;
+		if(done)
+			return false;
+		try {
+			next = queue.take();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel();
+			return false;
+		}
+		if(next == END) {
+			next = null;
+			done = true;
+			if(failure != null)
+				throw new RuntimeException("tight simulation failed", failure);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the next ball, waiting for it if it is not found yet
+	 */
+	@Override
+	public Ball next() {
+		if(! hasNext())
+			throw new NoSuchElementException();
+		Ball ball = next;
+		next = null;
+		if(nBalls++ == 0)
+			firstResultTime = System.currentTimeMillis() - startTime;
+		return ball;
+	}
+
+	/**
+	 * Stops the evaluation; the workers stop after their current ball, and the found balls are dropped.
+	 * It can be called from another thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		TightSimulation.BallStage s = stage;
+		if(s != null)
+			s.cancelled = true;
+		do {
+			queue.clear();
+		} while(! queue.offer(END)); // wakes up a caller waiting in hasNext()
+	}
+
+	/**
+	 * Same as cancel(); it releases the background thread and the workers
+	 */
+	@Override
+	public void close() {
+		cancel();
+	}
+
+	/**
+	 * Returns the balls as a sequential stream; closing the stream cancels the evaluation.
+	 * Short-circuiting operations like findFirst() or limit() stop reading more balls, and the workers wait after 
+	 * filling the hand-off queue, but they are released only when the stream is closed, so use try-with-resources:
+	 * try(Stream&lt;Ball&gt; balls = iterator.stream()) { ... }
+	 * @return the stream of the balls
+	 */
+	public Stream<Ball> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						cancel();
+					}
+				});
+	}
+
+} //class
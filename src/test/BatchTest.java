@@ -21,15 +21,13 @@ import graph.common.*;
 import graph.simulation.*;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 
-import org.javatuples.Pair;
 
-import cache.CacheUtils;
+import cache.FrequencyUsage;
+import cache.GraphQueryCache;
 
 /**
  * I) Receives the dataGraph as its first argument and the path to warm-up queries as its second argument.
@@ -44,9 +42,9 @@ public class BatchTest {
 			System.exit(-1);
 		}
 		long startTime, stopTime, totalWarmupTime = 0, totalAnsweTime = 0;
-		Map<SmallGraph, SmallGraph> cache = new HashMap<SmallGraph, SmallGraph>(); // the cache
-		// the index on the ploytrees stored in the cache
-		Map<Set<Pair<Integer,Integer>>, Set<SmallGraph>> cacheIndex = new HashMap<Set<Pair<Integer,Integer>>, Set<SmallGraph>>();
+		// the cache of the ploytrees without any bound, which is not updated by the new queries
+		GraphQueryCache cache = new GraphQueryCache(Integer.MAX_VALUE, Long.MAX_VALUE, new FrequencyUsage(1024));
+		cache.admitOnMiss = false;
 		
 		// I)
 		// The data graph is loaded from its file
@@ -119,14 +117,7 @@ public class BatchTest {
 
 				// The <polytree, inducedSubgraph> is stored in the cache
 				startTime = System.currentTimeMillis();
-				cache.put(polytree, inducedSubgraph);
-				Set<Pair<Integer, Integer>> sig = polytree.getSignature(); 
-				if (cacheIndex.get(sig) == null) {
-					Set<SmallGraph> pltSet = new HashSet<SmallGraph>();
-					pltSet.add(polytree);
-					cacheIndex.put(sig, pltSet);
-				} else
-					cacheIndex.get(sig).add(polytree);
+				cache.admit(queryGraph, polytree, dualSim, inducedSubgraph, t_noCache, null);
 				
 				stopTime = System.currentTimeMillis();
 				long t_store = stopTime - startTime;
@@ -163,33 +154,19 @@ public class BatchTest {
 				for (File queryFile : directoryListing) {
 					System.out.println("\nAnswering " + queryFile);
 					SmallGraph queryGraph = new SmallGraph(queryFile.getAbsolutePath());
-					// searching in the cache
+					// answering through the cache
 					startTime = System.currentTimeMillis();
-					boolean notInCache = true;
-					Set<SmallGraph> candidateMatchSet = CacheUtils.getCandidateMatchSet(queryGraph, cacheIndex);
-
-					if(candidateMatchSet != null) {
-						for(SmallGraph candidate : candidateMatchSet) {
-							if(CacheUtils.isDualCoverMatch(queryGraph, candidate)) {
-								notInCache = false;
-								System.out.println("Hit the cache!");
-								long bTime = System.currentTimeMillis();
-								SmallGraph inducedSubgraph = cache.get(candidate);
-								Set<Ball> tightResults_cache = TightSimulation.getTightSimulation(inducedSubgraph, queryGraph);
-								TightSimulation.filterMatchGraphs(tightResults_cache);
-								long fTime = System.currentTimeMillis();
-								System.out.println("The time for tight simulation from cache: " + (fTime - bTime) + " ms");
-							} //if
-						} //for
-					} //if
-					if(notInCache) {
+					long nHits = cache.nHits;
+					long bTime = System.currentTimeMillis();
+					cache.answer(dataGraph, queryGraph);
+					long fTime = System.currentTimeMillis();
+					if(cache.nHits > nHits) {
+						System.out.println("Hit the cache!");
+						System.out.println("The time for tight simulation from cache: " + (fTime - bTime) + " ms");
+					} else {
 						System.out.println("Not in the cache!");
-						long bTime = System.currentTimeMillis();
-						Set<Ball> tightResults_cache = TightSimulation.getTightSimulation(dataGraph, queryGraph);
-						TightSimulation.filterMatchGraphs(tightResults_cache);
-						long fTime = System.currentTimeMillis();
 						System.out.println("The time for tight simulation without cache: " + (fTime - bTime) + " ms");
-					} //if
+					} //if-else
 					stopTime = System.currentTimeMillis();
 					long tt_q = stopTime - startTime;
 					totalAnsweTime += tt_q;
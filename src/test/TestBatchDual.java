@@ -0,0 +1,99 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package test;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+import graph.simulation.DualSimulation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cache.CacheUtils;
+
+public class TestBatchDual {
+	/*
+	 * args[0] is the dataGraph file
+	 * args[1] is the path to the folder of queries
+	 * args[2] the number of queries in the batch
+	 * args[3] the reverse data graph if it is available 
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.out.println("Not correct number of input arguments");
+			System.exit(-1);
+		}
+		long startTime, stopTime;
+		
+		startTime = System.nanoTime();
+		Graph dataGraph = new Graph(args[0]);
+		if(args.length == 4)	dataGraph.buildParentIndex(args[3]);
+		stopTime = System.nanoTime();
+		System.out.println("Spent time to load the data graph: " + (double)(stopTime - startTime)/1000000 + " ms");
+
+		File dirQ = new File(args[1]);
+		if(!dirQ.isDirectory())
+			throw new Exception("The specified path of the queries is not a valid directory");
+		File[] queryFiles = dirQ.listFiles(); // the list of query files	
+		if(queryFiles == null)
+			throw new Exception("No query files found in the directory");
+		queryFiles = CacheUtils.RandomizeArray(queryFiles); // shuffling the array of the queries
+		int nQtest = Integer.parseInt(args[2]); // the number of queries in the batch
+		if(nQtest <= 0)
+			throw new Exception("the number of 'queries to test' should be a positive integer");
+		if(nQtest > queryFiles.length) nQtest = queryFiles.length;
+
+		List<SmallGraph> queries = new ArrayList<SmallGraph>(nQtest);
+		for(int qNo=0; qNo < nQtest; qNo++)
+			queries.add(new SmallGraph(queryFiles[qNo].getAbsolutePath()));
+		dataGraph.buildLabelIndex();
+
+		for(boolean newDual : new boolean[] {false, true}) {
+			// one query at a time
+			startTime = System.nanoTime();
+			List<Map<Integer, Set<Integer>>> single = new ArrayList<Map<Integer, Set<Integer>>>(nQtest);
+			for(SmallGraph query : queries)
+				single.add(newDual ? DualSimulation.getNewDualSimSet(dataGraph, query) : DualSimulation.getDualSimSet(dataGraph, query));
+			stopTime = System.nanoTime();
+			long t_single = stopTime - startTime;
+
+			// the whole batch
+			startTime = System.nanoTime();
+			List<Map<Integer, Set<Integer>>> batch = DualSimulation.evaluateBatch(dataGraph, queries, newDual);
+			stopTime = System.nanoTime();
+			long t_batch = stopTime - startTime;
+
+			int nDifferent = 0;
+			for(int i = 0; i < nQtest; i++) {
+				boolean noMatch = DualSimulation.nodesInSimSet(single.get(i)).isEmpty();
+				if(noMatch ? !batch.get(i).isEmpty() : !single.get(i).equals(batch.get(i)))
+					nDifferent++;
+			} //for
+
+			System.out.println(newDual ? "newDual" : "dual");
+			System.out.println("Spent time for the queries one by one: " + (double)t_single/1000000 + " ms");
+			System.out.println("Spent time for the batch of queries: " + (double)t_batch/1000000 + " ms");
+			System.out.println("Throughput (queries/s), one by one: " + nQtest / ((double)t_single/1000000000) + ", batch: " + nQtest / ((double)t_batch/1000000000));
+			System.out.println("The number of different results: " + nDifferent);
+			System.out.println();
+		} //for
+	}//main
+}//class
@@ -0,0 +1,83 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package test;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+import graph.simulation.DualSimulation;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.javatuples.Pair;
+
+public class TestExtendQuery {
+	/*
+	 * Grows a query step by step (the same way as OldQtoNewQ) and compares the incremental evaluation of 
+	 * each version with its evaluation from scratch
+	 * args[0] is the dataGraph file
+	 * args[1] is the query file
+	 * args[2] the number of increments
+	 * args[3] the reverse data graph if it is available 
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.out.println("Not correct number of input arguments");
+			System.exit(-1);
+		}
+		long startTime, stopTime;
+		
+		Graph dataGraph = new Graph(args[0]);
+		if(args.length == 4)	dataGraph.buildParentIndex(args[3]);
+		SmallGraph query = new SmallGraph(args[1]);
+		int nIncrements = Integer.parseInt(args[2]);
+
+		Map<Integer, Set<Integer>> relation = DualSimulation.getDualSimSet(dataGraph, query);
+		Random rand = new Random();
+		long t_scratch = 0, t_incremental = 0;
+		for(int count = 0; count < nIncrements; count++) {
+			int q_N = query.getNumVertices();
+			int newLabel = query.getLabel(rand.nextInt(q_N));
+			int nConnections = 0;
+			while(nConnections == 0)
+				nConnections = rand.nextInt(q_N);
+			Set<Pair<Integer, Integer>> connectVertices = new HashSet<Pair<Integer, Integer>>(nConnections);
+			for(int i=0; i < nConnections; i++)
+				connectVertices.add(new Pair<Integer, Integer>(rand.nextInt(q_N), rand.nextInt(2)));
+			query.connectNewVertex(q_N , newLabel, connectVertices);
+
+			startTime = System.nanoTime();
+			Map<Integer, Set<Integer>> scratch = DualSimulation.getDualSimSet(dataGraph, query);
+			stopTime = System.nanoTime();
+			t_scratch += stopTime - startTime;
+
+			startTime = System.nanoTime();
+			relation = DualSimulation.extendDualSimSet(dataGraph, query, relation, q_N);
+			stopTime = System.nanoTime();
+			t_incremental += stopTime - startTime;
+
+			boolean same = DualSimulation.nodesInSimSet(scratch).isEmpty() ? relation.isEmpty() : scratch.equals(relation);
+			System.out.println("Version " + (count + 1) + " with " + query.getNumVertices() + " vertices; the number of matched vertices: " 
+					+ DualSimulation.nodesInSimSet(relation).size() + (same ? "" : " (different from the evaluation from scratch)"));
+		} //for
+		System.out.println("Spent time for evaluation from scratch: " + (double)t_scratch/1000000 + " ms");
+		System.out.println("Spent time for incremental evaluation: " + (double)t_incremental/1000000 + " ms");
+	}//main
+}//class
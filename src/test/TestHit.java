@@ -26,14 +26,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
-import org.javatuples.Pair;
-
-import cache.CacheUtils;
+import cache.FrequencyUsage;
+import cache.GraphQueryCache;
 
 public class TestHit {
 	
@@ -51,10 +48,9 @@ public class TestHit {
 	public static void main(String[] args) throws Exception {
 		long startTime, stopTime;
 		double t_searchCache, t_storeCache;
-//		Map<SmallGraph, SmallGraph> cache = new HashMap<SmallGraph, SmallGraph>(); // the cache
-		// the index on the ploytrees stored in the cache
-		Map<Set<Pair<Integer,Integer>>, Set<SmallGraph>> cacheIndex = new HashMap<Set<Pair<Integer,Integer>>, Set<SmallGraph>>();
-		Map<SmallGraph, Pair<Integer, SmallGraph>> polytree2query = new HashMap<SmallGraph, Pair<Integer, SmallGraph>>();
+		// the cache of the ploytrees without any bound (the replacement policy is never used)
+		GraphQueryCache cache = new GraphQueryCache(Integer.MAX_VALUE, Long.MAX_VALUE, new FrequencyUsage(1024));
+		Map<SmallGraph, Integer> polytree2query = new HashMap<SmallGraph, Integer>(); // to keep the relation of polytrees in cache to entered queries
 
 		// reading the original data graph
 		Graph originalDataGraph = new Graph(args[0]);
@@ -144,30 +140,23 @@ public class TestHit {
 			}
 
 			// searching in the cache
-			Pair<Integer, SmallGraph> hitPair = null;
 			startTime = System.nanoTime();
 			boolean notInCache = true;
-			Set<SmallGraph> candidateMatchSet = CacheUtils.getCandidateMatchSet(q, cacheIndex);
-			int nHitCandidates = candidateMatchSet.size();
+			GraphQueryCache.Entry hit = cache.lookup(q);
+			int nHitCandidates = cache.lastCandidates;
 			System.out.print("nHitCandidates=" + nHitCandidates + ", ");
 			fileContents.append(nHitCandidates + "\t");
 			
-			for(SmallGraph candidate : candidateMatchSet) {
-				if(CacheUtils.isDualCoverMatch(q, candidate)) {
-					notInCache = false;
-					System.out.print("Hit the cache!, ");
-
-					hitPair = polytree2query.get(candidate);
-					// use the cache content to answer the query
-//					long bTime = System.currentTimeMillis();
-//					SmallGraph inducedSubgraph = cache.get(candidate);
-//					Set<Ball> tightResults_cache = TightSimulation.getTightSimulation(inducedSubgraph, queryGraph);
-//					tightResults_cache = TightSimulation.filterMatchGraphs(tightResults_cache);
-//					long fTime = System.currentTimeMillis();
-//					System.out.println("The time for tight simulation from cache: " + (fTime - bTime) + " ms");
-					break; // the first match would be enough 
-				} //if
-			} //for
+			if(hit != null) {
+				notInCache = false;
+				System.out.print("Hit the cache!, ");
+				// use the cache content to answer the query
+//				long bTime = System.currentTimeMillis();
+//				Set<Ball> tightResults_cache = TightSimulation.getTightSimulation(hit.inducedSubgraph, queryGraph);
+//				tightResults_cache = TightSimulation.filterMatchGraphs(tightResults_cache);
+//				long fTime = System.currentTimeMillis();
+//				System.out.println("The time for tight simulation from cache: " + (fTime - bTime) + " ms");
+			} //if
 			stopTime = System.nanoTime();
 			t_searchCache = (double)(stopTime - startTime) / 1000000;
 			System.out.print("search: " + t_searchCache + ", ");
@@ -176,8 +165,8 @@ public class TestHit {
 			if(! notInCache) { // found in the cache
 				// hit query
 				fileContents.append("1\t");
-				int hitQueryNo = hitPair.getValue0();
-				SmallGraph hitQuery = hitPair.getValue1();
+				int hitQueryNo = polytree2query.get(hit.polytree);
+				SmallGraph hitQuery = hit.query;
 				hitQuery.print2File(args[3] + "/Q" + hitQueryNo + "_N" + hitQuery.getNumVertices() + ".txt");
 				fileContents.append(hitQueryNo + "\t" + hitQuery.getNumVertices() + "\t");
 			}
@@ -199,16 +188,9 @@ public class TestHit {
 				// The dualSimSet of the polytree is found
 				// The induced subgraph of the dualSimSet is found
 				// The <polytree, inducedSubgraph> is stored in the cache
-//				cache.put(polytree, inducedSubgraph);
-				Set<Pair<Integer, Integer>> sig = polytree.getSignature(); 
-				if (cacheIndex.get(sig) == null) {
-					Set<SmallGraph> pltSet = new HashSet<SmallGraph>();
-					pltSet.add(polytree);
-					cacheIndex.put(sig, pltSet);
-				} else
-					cacheIndex.get(sig).add(polytree);
-				
-				polytree2query.put(polytree, new Pair<Integer, SmallGraph>(queryNo, q)); // save the queries filling the cache
+//				cache.admit(q, polytree, dualSim, inducedSubgraph);
+				cache.admit(q, polytree, null, null);
+				polytree2query.put(polytree, queryNo); // save the queries filling the cache
 			} //if
 			stopTime = System.nanoTime();
 			t_storeCache = (double)(stopTime - startTime) / 1000000;
@@ -221,14 +203,9 @@ public class TestHit {
 		
 		bw.close();
 		
-		System.out.println("Number of signatures stored: " + cacheIndex.size());
-		System.out.println("Number of polytrees stored: " + polytree2query.size());
-		int maxSet = 0;
-		for(Set<SmallGraph> pt : cacheIndex.values()) {
-			int theSize = pt.size();
-			if(theSize > maxSet)
-				maxSet = theSize;
-		} //for
+		System.out.println("Number of signatures stored: " + cache.numSignatures());
+		System.out.println("Number of polytrees stored: " + cache.size());
+		int maxSet = cache.maxPolytreesPerSignature();
 		System.out.println("The maximum number of stored polytrees with the same signature: " + maxSet);
 	} // main
 	
@@ -23,15 +23,14 @@ import graph.common.SmallGraph;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.javatuples.Pair;
 
 import cache.CacheUtils;
-import cache.FrequencyUsage;
+import cache.GraphQueryCache;
 
 public class TestHit2 {
 	
@@ -49,14 +48,10 @@ public class TestHit2 {
 	public static void main(String[] args) throws Exception {
 		long startTime, stopTime;
 		double t_searchCache, t_storeCache;
-		Map<SmallGraph, SmallGraph> cache = new HashMap<SmallGraph, SmallGraph>(); // the cache
-		// the index on the ploytrees stored in the cache
-		Map<Set<Pair<Integer,Integer>>, Set<SmallGraph>> cacheIndex = new HashMap<Set<Pair<Integer,Integer>>, Set<SmallGraph>>();
-		Map<SmallGraph, String> polytree2query = new HashMap<SmallGraph, String>(); // to keep the relation of polytrees in cache to entered queries
-		
-		// fuReplacement is an object for LFU replacement
+		// the cache of the polytrees with LFU replacement
 		int cacheSize = Integer.parseInt(args[4]);
-		FrequencyUsage fuReplacement = new FrequencyUsage(cacheSize);
+		GraphQueryCache cache = new GraphQueryCache(cacheSize);
+		Map<SmallGraph, String> polytree2query = new HashMap<SmallGraph, String>(); // to keep the relation of polytrees in cache to entered queries
 		
 		// reading the original data graph
 		Graph originalDataGraph = new Graph(args[0]);
@@ -115,23 +110,17 @@ public class TestHit2 {
 			String hitQueryName = null;
 			startTime = System.nanoTime();
 			boolean notInCache = true;
-			Set<SmallGraph> candidateMatchSet = CacheUtils.getCandidateMatchSet(q, cacheIndex);
-			int nHitCandidates = candidateMatchSet.size();
+			GraphQueryCache.Entry hit = cache.lookup(q); // it also increases the frequency counter of the hit polytree
+			int nHitCandidates = cache.lastCandidates;
 			System.out.print("nHitCandidates=" + nHitCandidates + ", ");
 			fileContents.append(nHitCandidates + "\t");
 			
-			for(SmallGraph candidate : candidateMatchSet) {
-				if(CacheUtils.isDualCoverMatch(q, candidate)) {
-					notInCache = false;
-					System.out.print("Hit the cache!, ");
-					// increasing the frequency counter of the polytree
-					fuReplacement.addEntry(candidate);
-
-					hitQueryName = polytree2query.get(candidate);
-					// use the cache content to answer the query (not the goal of this test)
-					break; // the first match would be enough 
-				} //if
-			} //for
+			if(hit != null) {
+				notInCache = false;
+				System.out.print("Hit the cache!, ");
+				hitQueryName = polytree2query.get(hit.polytree);
+				// use the cache content to answer the query (not the goal of this test)
+			} //if
 			stopTime = System.nanoTime();
 			t_searchCache = (double)(stopTime - startTime) / 1000000;
 			System.out.print("search: " + t_searchCache + ", ");
@@ -157,24 +146,12 @@ public class TestHit2 {
 				// The induced subgraph of the dualSimSet is found
 				// The <polytree, inducedSubgraph> is stored in the cache
 //				cache.put(polytree, inducedSubgraph);
-				if(cache.size() >= cacheSize) {
-					SmallGraph removedP = CacheUtils.removeLFU(fuReplacement, cache, cacheIndex);
-					bw_r.write(polytree2query.get(removedP) + "\t");
-					polytree2query.remove(removedP);
-				}//if
-				cache.put(polytree, new SmallGraph()); // a fake cache just to measure hit-rate
-				// adding the polytree to replacement object
-				fuReplacement.addEntry(polytree);
-				// adding the polytree to cacheIndex
-				Set<Pair<Integer, Integer>> sig = polytree.getSignature(); 
-				if (cacheIndex.get(sig) == null) {
-					Set<SmallGraph> pltSet = new HashSet<SmallGraph>();
-					pltSet.add(polytree);
-					cacheIndex.put(sig, pltSet);
-				} else
-					cacheIndex.get(sig).add(polytree);
-				
-				polytree2query.put(polytree, qFile.getName()); // save the queries filling the cache
+				List<GraphQueryCache.Entry> evicted = new ArrayList<GraphQueryCache.Entry>();
+				GraphQueryCache.Entry entry = cache.admit(q, polytree, null, new SmallGraph(), evicted); // a fake cache just to measure hit-rate
+				for(GraphQueryCache.Entry removed : evicted)
+					bw_r.write(polytree2query.remove(removed.polytree) + "\t");
+				if(entry != null)
+					polytree2query.put(polytree, qFile.getName()); // save the queries filling the cache
 			} //if
 			stopTime = System.nanoTime();
 			t_storeCache = (double)(stopTime - startTime) / 1000000;
@@ -185,8 +162,8 @@ public class TestHit2 {
 			fileContents.delete(0, fileContents.length());
 		} //for
 		
-		System.out.println("Number of signatures stored (base only): " + cacheIndex.size());
-		System.out.println("Number of polytrees stored (base only): " + polytree2query.size());
+		System.out.println("Number of signatures stored (base only): " + cache.numSignatures());
+		System.out.println("Number of polytrees stored (base only): " + cache.size());
 
 		//********************************************************************
 		// reading all the modified query graphs and store in the cache those which cannot be answered by previous ones
@@ -227,23 +204,17 @@ public class TestHit2 {
 			String hitQueryName = null;
 			startTime = System.nanoTime();
 			boolean notInCache = true;
-			Set<SmallGraph> candidateMatchSet = CacheUtils.getCandidateMatchSet(q, cacheIndex);
-			int nHitCandidates = candidateMatchSet.size();
+			GraphQueryCache.Entry hit = cache.lookup(q); // it also increases the frequency counter of the hit polytree
+			int nHitCandidates = cache.lastCandidates;
 			System.out.print("nHitCandidates=" + nHitCandidates + ", ");
 			fileContents.append(nHitCandidates + "\t");
 			
-			for(SmallGraph candidate : candidateMatchSet) {
-				if(CacheUtils.isDualCoverMatch(q, candidate)) {
-					notInCache = false;
-					System.out.print("Hit the cache!, ");
-					// increasing the frequency counter of the polytree
-					fuReplacement.addEntry(candidate);
-
-					hitQueryName = polytree2query.get(candidate);
-					// use the cache content to answer the query (not the goal of this test)
-					break; // the first match would be enough 
-				} //if
-			} //for
+			if(hit != null) {
+				notInCache = false;
+				System.out.print("Hit the cache!, ");
+				hitQueryName = polytree2query.get(hit.polytree);
+				// use the cache content to answer the query (not the goal of this test)
+			} //if
 			stopTime = System.nanoTime();
 			t_searchCache = (double)(stopTime - startTime) / 1000000;
 			System.out.print("search: " + t_searchCache + ", ");
@@ -269,24 +240,12 @@ public class TestHit2 {
 				// The induced subgraph of the dualSimSet is found
 				// The <polytree, inducedSubgraph> is stored in the cache
 //				cache.put(polytree, inducedSubgraph);
-				if(cache.size() >= cacheSize) {
-					SmallGraph removedP = CacheUtils.removeLFU(fuReplacement, cache, cacheIndex);					
-					bw_r.write(polytree2query.get(removedP) + "\t");
-					polytree2query.remove(removedP);
-				}//if
-				cache.put(polytree, new SmallGraph()); // a fake cache just to measure hit-rate
-				// adding the polytree to replacement object
-				fuReplacement.addEntry(polytree);
-				// adding the polytree to cacheIndex
-				Set<Pair<Integer, Integer>> sig = polytree.getSignature(); 
-				if (cacheIndex.get(sig) == null) {
-					Set<SmallGraph> pltSet = new HashSet<SmallGraph>();
-					pltSet.add(polytree);
-					cacheIndex.put(sig, pltSet);
-				} else
-					cacheIndex.get(sig).add(polytree);
-				
-				polytree2query.put(polytree, qFile.getName()); // save the queries filling the cache
+				List<GraphQueryCache.Entry> evicted = new ArrayList<GraphQueryCache.Entry>();
+				GraphQueryCache.Entry entry = cache.admit(q, polytree, null, new SmallGraph(), evicted); // a fake cache just to measure hit-rate
+				for(GraphQueryCache.Entry removed : evicted)
+					bw_r.write(polytree2query.remove(removed.polytree) + "\t");
+				if(entry != null)
+					polytree2query.put(polytree, qFile.getName()); // save the queries filling the cache
 			} //if
 			stopTime = System.nanoTime();
 			t_storeCache = (double)(stopTime - startTime) / 1000000;
@@ -299,15 +258,10 @@ public class TestHit2 {
 
 		bw.close();
 		
-		System.out.println("Number of signatures in the cache: " + cacheIndex.size());
-		System.out.println("Number of polytrees in the cache: " + polytree2query.size());
-		bw_r.write("\nNumber of signatures in the cache: " + cacheIndex.size() + "\nNumber of polytrees in the cache: " + polytree2query.size());
-		int maxSet = 0;
-		for(Set<SmallGraph> pt : cacheIndex.values()) {
-			int theSize = pt.size();
-			if(theSize > maxSet)
-				maxSet = theSize;
-		} //for
+		System.out.println("Number of signatures in the cache: " + cache.numSignatures());
+		System.out.println("Number of polytrees in the cache: " + cache.size());
+		bw_r.write("\nNumber of signatures in the cache: " + cache.numSignatures() + "\nNumber of polytrees in the cache: " + cache.size());
+		int maxSet = cache.maxPolytreesPerSignature();
 		System.out.println("The maximum number of stored polytrees with the same signature: " + maxSet);
 		bw_r.write("\nThe maximum number of stored polytrees with the same signature: " + maxSet);
 		bw_r.close();
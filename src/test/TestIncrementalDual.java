@@ -0,0 +1,114 @@
+/*
+ * An MIT style license:
+ * 
+ * Written by Arash Fard and Satya Vikas under supervision of Dr. Lakshmish Ramaswamy and Dr. John A. Miller.
+ * 
+ * Copyright (c) 2014, The University of Georgia
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package test;
+
+import graph.common.Graph;
+import graph.common.SmallGraph;
+import graph.simulation.DualSimulation;
+import graph.simulation.IncrementalDualSimulation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class TestIncrementalDual {
+	private static final String[] KINDS = {"edge insertion", "edge deletion", "vertex insertion", "vertex deletion"};
+	
+	/*
+	 * Applies random updates to a data graph (edge and vertex insertions and deletions), and compares the 
+	 * incrementally maintained dual simulation relation of a query after each update with its evaluation from scratch
+	 * args[0] is the dataGraph file
+	 * args[1] is the query file
+	 * args[2] the number of updates
+	 * args[3] the reverse data graph if it is available 
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.out.println("Not correct number of input arguments");
+			System.exit(-1);
+		}
+		long startTime, stopTime;
+		
+		Graph dataGraph = new Graph(args[0]);
+		if(args.length == 4)	dataGraph.buildParentIndex(args[3]);
+		SmallGraph query = new SmallGraph(args[1]);
+		int nUpdates = Integer.parseInt(args[2]);
+
+		IncrementalDualSimulation incremental = new IncrementalDualSimulation(dataGraph, query);
+		Random rand = new Random();
+		long[] t_scratch = new long[KINDS.length], t_incremental = new long[KINDS.length];
+		int[] nKind = new int[KINDS.length], nDifferent = new int[KINDS.length];
+		for(int count = 0; count < nUpdates; count++) {
+			int kind = rand.nextInt(KINDS.length);
+			int n = dataGraph.getNumVertices();
+			int v = rand.nextInt(n);
+			if(dataGraph.getLabel(v) == -1)
+				continue; // a removed vertex
+			startTime = System.nanoTime();
+			switch (kind) {
+				case 0: // an edge from v to a random vertex
+					int to = rand.nextInt(n);
+					if(dataGraph.getLabel(to) == -1 || ! dataGraph.addEdge(v, to))
+						continue;
+					incremental.edgeInserted(v, to);
+					break;
+				case 1: // an edge of v
+					int[] children = dataGraph.getChildren(v);
+					if(children.length == 0)
+						continue;
+					int child = children[rand.nextInt(children.length)];
+					dataGraph.removeEdge(v, child);
+					incremental.edgeDeleted(v, child);
+					break;
+				case 2: // a new vertex with the label of v, and an edge between them
+					int id = dataGraph.addVertex(dataGraph.getLabel(v));
+					incremental.vertexInserted(id);
+					if(rand.nextBoolean()) {
+						dataGraph.addEdge(id, v);
+						incremental.edgeInserted(id, v);
+					} else {
+						dataGraph.addEdge(v, id);
+						incremental.edgeInserted(v, id);
+					} //if-else
+					break;
+				default: // v with its edges
+					IncrementalDualSimulation.deleteVertex(dataGraph, Collections.singleton(incremental), v);
+			} //switch
+			stopTime = System.nanoTime();
+			t_incremental[kind] += stopTime - startTime;
+
+			startTime = System.nanoTime();
+			Map<Integer, Set<Integer>> scratch = DualSimulation.getDualSimSet(dataGraph, query);
+			stopTime = System.nanoTime();
+			t_scratch[kind] += stopTime - startTime;
+
+			Map<Integer, Set<Integer>> relation = incremental.getRelation();
+			boolean same = DualSimulation.nodesInSimSet(scratch).isEmpty() ? relation.isEmpty() : scratch.equals(relation);
+			nKind[kind]++;
+			if(! same) {
+				nDifferent[kind]++;
+				System.out.println("Update " + (count + 1) + " (" + KINDS[kind] + "): different from the evaluation from scratch");
+			} //if
+		} //for
+		for(int kind = 0; kind < KINDS.length; kind++) {
+			System.out.println(KINDS[kind] + ": " + nKind[kind] + " updates, " + nDifferent[kind] + " different; spent time for evaluation from scratch: " 
+					+ (double)t_scratch[kind]/1000000 + " ms, for incremental evaluation: " + (double)t_incremental[kind]/1000000 + " ms");
+		} //for
+	}//main
+}//class